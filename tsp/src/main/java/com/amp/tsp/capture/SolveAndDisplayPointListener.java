@@ -22,6 +22,7 @@ import org.apache.log4j.Logger;
 import com.amp.tsp.app.SelectionListener;
 import com.amp.tsp.mapping.Constraint;
 import com.amp.tsp.mapping.Sector;
+import com.amp.tsp.mapping.ShortestPaths;
 import com.amp.tsp.mapping.TspSolution;
 import com.amp.tsp.mapping.TspSolver;
 import com.amp.tsp.mapping.TspUtilities;
@@ -40,6 +41,7 @@ public class SolveAndDisplayPointListener implements PointListener {
 	private List<String> endingPoints;
 	private List<String> warpPoints;
 	private TspSolver solver;
+	private final ShortestPaths shortestPaths = new ShortestPaths(); //kept between selections so edits are applied incrementally
 
 	public SolveAndDisplayPointListener(SelectionListener selectionListener){
 		this.selectionListener = selectionListener;
@@ -62,8 +64,10 @@ public class SolveAndDisplayPointListener implements PointListener {
 		MapParser.writeMapFile("mapText.yaml", sectors);
 		MapParser.writeClickMap(PrefName.LAST_MAP_LOCATION.get(), points, startingPoints, endingPoints, warpPoints);
 		
+		shortestPaths.update(sectors);
 		List<Constraint> constraints = TspUtilities.stringsToConstraints(startingPoints, endingPoints, sectors);
-		this.solver = TspSolution.forSectors(sectors).usingConstraints(constraints).accuracy(PrefName.ALGORITHM_ACCURACY.getInt());
+		this.solver = TspSolution.forSectors(sectors).usingConstraints(constraints)
+				.usingShortestPaths(shortestPaths.toMap()).accuracy(PrefName.ALGORITHM_ACCURACY.getInt());
 
 		progressFrame = new ProgressFrame(points.size());
 		progressFrame.toFront();
@@ -134,7 +138,7 @@ public class SolveAndDisplayPointListener implements PointListener {
 
 		@Override
 		protected List<Sector> doInBackground() throws Exception {
-			List<Sector> sectors = solver.solve();
+			List<Sector> sectors = solver.improve(solver.solve());
 			displayResults(sectors);
 			return sectors;
 		}
@@ -0,0 +1,321 @@
+package com.amp.tsp.mapping;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+import com.amp.tsp.mapping.TspSolution.TspBuilder;
+
+/**
+ * Heuristic solver in the style of an Ant Colony System. Each ant builds a path one step at a
+ * time. Usually it takes the edge with the most pheromone weighted by closeness. Sometimes it
+ * picks an edge at random in proportion to that weight. Choices are limited to each sector's
+ * {@link #CANDIDATES} nearest sectors, as ordered by
+ * {@link MultiOptimizedNearestNeighborTspSolver#orderNeighbors}, while any of them are free.
+ * Taking an edge evaporates a little of its pheromone, so ants that follow are nudged elsewhere.
+ * After each iteration, the edges of the best path so far gain pheromone.
+ *
+ * Pheromone is kept per direction in a flat float[] indexed like the {@link DistanceMatrix}. An
+ * edge and its reverse are separate entries, so asymmetric warp-point maps learn each direction
+ * on its own. Ants run in parallel on a {@link ForkJoinPool}. Their updates are guarded by locks
+ * striped over the sector the edge leaves. Each ant's path is polished by a
+ * {@link LocalSearchImprover} before it is compared.
+ *
+ * Every ant keeps the fixed head and ending of the cheapest greedy path, so sectors fixed by a
+ * required seed or ending constraint are never moved.
+ *
+ * @author alex
+ */
+public class AntColonyTspSolver extends TspSolver {
+	/** Default time spent building paths, in milliseconds */
+	public static final long DEFAULT_TIME_BUDGET = 2000;
+	/** Default number of ants in each iteration */
+	public static final int DEFAULT_ANTS = 10;
+	/** Number of nearest sectors an ant chooses between while any of them are free */
+	public static final int CANDIDATES = 15;
+
+	private static final double BETA = 2; //weight of closeness against pheromone
+	private static final double EXPLOIT = 0.9; //probability of taking the best edge rather than sampling
+	private static final float GLOBAL_EVAPORATION = 0.1f;
+	private static final float LOCAL_EVAPORATION = 0.1f;
+	private static final int STRIPES = 64;
+
+	private long timeBudget = DEFAULT_TIME_BUDGET;
+	private int numAnts = DEFAULT_ANTS;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private long seed = 0;
+
+	//state of the colony, shared by the ants
+	private int stride;
+	private float[] pheromone; //pheromone[from * stride + to]
+	private float[] closeness; //closeness[from * stride + to] = (1 / distance)^BETA
+	private float initialPheromone;
+	private int[][] candidates;
+	private final Object[] locks = new Object[STRIPES];
+	private int[] bestPath;
+	private long bestCost;
+	private int lo, hi; //movable sectors are path[lo..hi)
+
+	/**
+	 * @see TspSolver#TspSolver(TspBuilder)
+	 */
+	public AntColonyTspSolver(TspBuilder builder) {
+		super(builder);
+		for(int i = 0; i < STRIPES; i++){
+			locks[i] = new Object();
+		}
+	}
+
+	/**
+	 * @param timeBudget Milliseconds spent building paths in subsequent calls to solve()
+	 */
+	public void setTimeBudget(long timeBudget){
+		this.timeBudget = timeBudget;
+	}
+
+	/**
+	 * @param numAnts Number of ants in each iteration
+	 */
+	public void setNumAnts(int numAnts){
+		this.numAnts = Math.max(1, numAnts);
+	}
+
+	/**
+	 * @param numThreads Number of threads the ants of each iteration are shared between
+	 */
+	public void setNumThreads(int numThreads){
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * @param seed Seed for the ants' random choices, so that runs can be repeated
+	 */
+	public void setSeed(long seed){
+		this.seed = seed;
+	}
+
+	@Override
+	public List<Sector> solve() {
+		if(!start()){
+			logger.warn("No complete path found");
+			return new ArrayList<>();
+		}
+		if(hi - lo < 2){
+			return TspUtilities.sectorList(bestPath, distances.getSectorList());
+		}
+		initialize();
+		logger.info("Starting path cost: " + bestCost);
+
+		SplittableRandom random = new SplittableRandom(seed);
+		List<Ant> ants = new ArrayList<>();
+		for(int i = 0; i < Math.min(numThreads, numAnts); i++){
+			ants.add(new Ant(random.split(), numAnts / numThreads + (i < numAnts % numThreads ? 1 : 0)));
+		}
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for(Ant ant : ants){
+			tasks.add(() -> {
+				ant.run();
+				return null;
+			});
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(ants.size());
+		long start = System.currentTimeMillis();
+		int iteration = 0;
+		try {
+			for(long elapsed = 0; elapsed < timeBudget; elapsed = System.currentTimeMillis() - start, iteration++){
+				pool.invokeAll(tasks);
+				for(Ant ant : ants){
+					if(ant.bestCost < bestCost){
+						bestCost = ant.bestCost;
+						System.arraycopy(ant.bestPath, 0, bestPath, 0, bestPath.length);
+						logger.info("Cost " + bestCost + " path found after " + elapsed + "ms");
+					}
+				}
+				reinforce();
+				updateProgress((int)(elapsed * sectors.size() / timeBudget));
+			}
+		} finally {
+			pool.shutdown();
+		}
+		logger.info("Ran " + iteration + " iterations of " + numAnts + " ants, best cost " + bestCost);
+		int[] path = bestPath;
+		pheromone = null;
+		closeness = null;
+		bestPath = null;
+		return TspUtilities.sectorList(path, distances.getSectorList());
+	}
+
+	/**
+	 * Sets the best path, lo and hi from the cheapest greedy path among the initial nodes.
+	 * @return False if no initial node can be completed
+	 */
+	private boolean start(){
+		LocalSearchImprover improver = new LocalSearchImprover(distances);
+		bestPath = null;
+		bestCost = Long.MAX_VALUE;
+		for(TspNode root : getInitialNodes()){
+			int[] ending = ids(root.getEnding());
+			int[] greedy = nearestNeighborPath(ids(root.getPath()), ending);
+			if(greedy == null){
+				continue;
+			}
+			long cost = improver.cost(greedy);
+			if(cost < bestCost){
+				bestPath = greedy;
+				bestCost = cost;
+				lo = useSeedsOnly || root.getPath().size() > 1 ? root.getPath().size() : 0;
+				hi = greedy.length - ending.length;
+			}
+		}
+		return bestPath != null;
+	}
+
+	/**
+	 * Lays down the initial pheromone from the greedy path's cost, and caches closeness and
+	 * candidate lists.
+	 */
+	private void initialize(){
+		int n = distances.size();
+		stride = n + 1;
+		initialPheromone = (float)(1.0 / ((hi - lo) * (double)bestCost));
+		pheromone = new float[stride * stride];
+		closeness = new float[stride * stride];
+		candidates = new int[stride][];
+		for(int from = 1; from <= n; from++){
+			for(int to = 1; to <= n; to++){
+				pheromone[from * stride + to] = initialPheromone;
+				closeness[from * stride + to] = from == to ? 0 : (float)Math.pow(1.0 / Math.max(1, distances.get(from, to)), BETA);
+			}
+			int[] ordered = MultiOptimizedNearestNeighborTspSolver.orderNeighbors(distances, from);
+			candidates[from] = new int[Math.min(CANDIDATES, ordered.length)];
+			System.arraycopy(ordered, 0, candidates[from], 0, candidates[from].length);
+		}
+	}
+
+	/**
+	 * Adds pheromone to the edges of the best path. Only called while no ant is running.
+	 */
+	private void reinforce(){
+		float deposit = (float)(GLOBAL_EVAPORATION / (double)bestCost);
+		for(int k = 1; k < bestPath.length; k++){
+			int edge = bestPath[k - 1] * stride + bestPath[k];
+			pheromone[edge] = (1 - GLOBAL_EVAPORATION) * pheromone[edge] + deposit;
+		}
+	}
+
+	/**
+	 * Builds a share of each iteration's paths on one thread, with its own random numbers,
+	 * improver and workspace.
+	 */
+	private class Ant {
+		private final SplittableRandom random;
+		private final int paths;
+		private final LocalSearchImprover improver = new LocalSearchImprover(distances);
+		private final boolean[] used = new boolean[stride];
+		private final float[] weights = new float[CANDIDATES];
+		private final int[] path;
+		private final int[] bestPath;
+		private long bestCost;
+
+		Ant(SplittableRandom random, int paths){
+			this.random = random;
+			this.paths = paths;
+			path = AntColonyTspSolver.this.bestPath.clone();
+			bestPath = path.clone();
+		}
+
+		/**
+		 * Builds this ant's share of paths and keeps the cheapest of them.
+		 */
+		void run(){
+			bestCost = Long.MAX_VALUE;
+			for(int i = 0; i < paths; i++){
+				build();
+				long cost = improver.improve(path, lo, path.length - hi);
+				if(cost < bestCost){
+					bestCost = cost;
+					System.arraycopy(path, 0, bestPath, 0, path.length);
+				}
+			}
+		}
+
+		/**
+		 * Refills path[lo..hi) one step at a time, evaporating pheromone from each edge taken.
+		 */
+		private void build(){
+			for(int k = 0; k < path.length; k++){
+				used[path[k]] = k < lo || k >= hi;
+			}
+			//with no fixed head, start from any movable sector while the last path is still intact
+			int last = lo > 0 ? path[lo - 1] : 0;
+			for(int k = lo; k < hi; k++){
+				int next = last == 0 ? path[lo + random.nextInt(hi - lo)] : next(last);
+				if(last != 0){
+					evaporate(last * stride + next);
+				}
+				path[k] = next;
+				used[next] = true;
+				last = next;
+			}
+		}
+
+		/**
+		 * @return A free sector to step to from last: usually the candidate with the most
+		 * 	weighted pheromone, otherwise one sampled in proportion to it
+		 */
+		private int next(int last){
+			int[] near = candidates[last];
+			float total = 0;
+			int best = 0;
+			for(int i = 0; i < near.length; i++){
+				weights[i] = used[near[i]] ? 0 : weight(last, near[i]);
+				total += weights[i];
+				if(weights[i] > weights[best]){
+					best = i;
+				}
+			}
+			if(total == 0){
+				return strongest(last);
+			}
+			if(random.nextDouble() < EXPLOIT){
+				return near[best];
+			}
+			float sample = (float)(random.nextDouble() * total);
+			for(int i = 0; i < near.length; i++){
+				sample -= weights[i];
+				if(sample <= 0 && weights[i] > 0){
+					return near[i];
+				}
+			}
+			return near[best];
+		}
+
+		/**
+		 * @return The free sector with the most weighted pheromone from last, once every
+		 * 	candidate is used
+		 */
+		private int strongest(int last){
+			int strongest = 0;
+			for(int id = 1; id < used.length; id++){
+				if(!used[id] && (strongest == 0 || weight(last, id) > weight(last, strongest))){
+					strongest = id;
+				}
+			}
+			return strongest;
+		}
+
+		private float weight(int from, int to){
+			int edge = from * stride + to;
+			return pheromone[edge] * closeness[edge];
+		}
+
+		private void evaporate(int edge){
+			synchronized(locks[(edge / stride) % STRIPES]){
+				pheromone[edge] = (1 - LOCAL_EVAPORATION) * pheromone[edge] + LOCAL_EVAPORATION * initialPheromone;
+			}
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package com.amp.tsp.mapping;
+
+/**
+ * Assignment problem relaxation. The rest of a path leaves the last sector and each
+ * unvisited sector exactly once, and enters each unvisited sector exactly once, so the
+ * cheapest way to give every one of those sectors a distinct successor (an unvisited sector
+ * or the end of the path) is a lower bound for completing it. This is much tighter than
+ * {@link MinIncomingEdgeBound}, which lets many sectors share the same successor, and works
+ * for asymmetric distances.
+ * 
+ * The assignment is solved once per expanded node with the Hungarian algorithm, which also
+ * produces dual potentials for every row and column. Fixing the step from the last sector to
+ * a child removes one row and one column, and the remaining potentials are still feasible for
+ * that smaller problem, so each child's bound is read from them in constant time.
+ * 
+ * @author alex
+ */
+public class AssignmentBound implements BoundStrategy {
+	//cost of a forbidden assignment; large enough to never be chosen but safe to add up
+	private static final long FORBIDDEN = 1L << 40;
+	private static final long HUGE = Long.MAX_VALUE / 4;
+
+	private final DistanceMatrix distances;
+	private final int numSectors;
+	private final int[] unvisited;
+	private final int[] columnOf; //sector id -> column of the assignment matrix
+
+	//Hungarian algorithm state, 1-indexed with row 1 being the last sector
+	private final long[] u, v, minv;
+	private final int[] p, way;
+	private final boolean[] used;
+
+	private int count;
+	private int last;
+	private int length;
+	private int prefixCost;
+	private long relaxation;
+
+	public AssignmentBound(DistanceMatrix distances){
+		this.distances = distances;
+		this.numSectors = distances.size();
+		this.unvisited = new int[numSectors];
+		this.columnOf = new int[numSectors + 1];
+		this.u = new long[numSectors + 2];
+		this.v = new long[numSectors + 2];
+		this.minv = new long[numSectors + 2];
+		this.p = new int[numSectors + 2];
+		this.way = new int[numSectors + 2];
+		this.used = new boolean[numSectors + 2];
+	}
+
+	@Override
+	public void expand(long[] visited, int last, int length, int prefixCost) {
+		this.last = last;
+		this.length = length;
+		this.prefixCost = prefixCost;
+		this.count = SectorMask.unvisited(visited, numSectors, unvisited);
+		for(int i = 0; i < count; i++){
+			columnOf[unvisited[i]] = i + 1;
+		}
+		solveAssignment(count + 1);
+		relaxation = 0;
+		for(int i = 1; i <= count + 1; i++){
+			relaxation += u[i] + v[i];
+		}
+	}
+
+	@Override
+	public int childBound(int child) {
+		long bound = (long)prefixCost + distances.get(last, child);
+		if(length + 1 < numSectors){
+			bound += relaxation - u[1] - v[columnOf[child]];
+		}
+		return (int)Math.min(bound, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Rows are the last sector followed by the unvisited sectors, columns are the unvisited
+	 * sectors followed by the end of the path.
+	 */
+	private long cost(int row, int col){
+		if(col == count + 1){
+			return row == 1 ? FORBIDDEN : 0; //the last sector cannot end the path while sectors remain
+		}
+		int from = row == 1 ? last : unvisited[row - 2];
+		int to = unvisited[col - 1];
+		if(from == to){
+			return FORBIDDEN;
+		}
+		int distance = distances.get(from, to);
+		return distance == DistanceMatrix.UNREACHABLE ? FORBIDDEN : distance;
+	}
+
+	/**
+	 * Hungarian algorithm with potentials on an n by n matrix, O(n^3). Leaves u and v
+	 * as feasible dual potentials whose sum is the cost of the optimal assignment.
+	 */
+	private void solveAssignment(int n){
+		for(int j = 0; j <= n; j++){
+			u[j] = 0;
+			v[j] = 0;
+			p[j] = 0;
+			way[j] = 0;
+		}
+		for(int i = 1; i <= n; i++){
+			p[0] = i;
+			int j0 = 0;
+			for(int j = 0; j <= n; j++){
+				minv[j] = HUGE;
+				used[j] = false;
+			}
+			do {
+				used[j0] = true;
+				int i0 = p[j0], j1 = 0;
+				long delta = HUGE;
+				for(int j = 1; j <= n; j++){
+					if(!used[j]){
+						long cur = cost(i0, j) - u[i0] - v[j];
+						if(cur < minv[j]){
+							minv[j] = cur;
+							way[j] = j0;
+						}
+						if(minv[j] < delta){
+							delta = minv[j];
+							j1 = j;
+						}
+					}
+				}
+				for(int j = 0; j <= n; j++){
+					if(used[j]){
+						u[p[j]] += delta;
+						v[j] -= delta;
+					} else {
+						minv[j] -= delta;
+					}
+				}
+				j0 = j1;
+			} while(p[j0] != 0);
+			do {
+				int j1 = way[j0];
+				p[j0] = p[j1];
+				j0 = j1;
+			} while(j0 != 0);
+		}
+	}
+}
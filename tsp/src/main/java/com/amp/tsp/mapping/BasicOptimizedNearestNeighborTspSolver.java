@@ -1,17 +1,13 @@
 package com.amp.tsp.mapping;
 
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Queue;
-import java.util.stream.Collectors;
 
 import com.amp.tsp.mapping.TspSolution.TspBuilder;
 
 public class BasicOptimizedNearestNeighborTspSolver extends OptimizedTspSolver {
 
-	private Map<Byte, byte[]> nearestNeighbors;
+	private int[][] nearestNeighbors; //nearestNeighbors[id] = every other sector, nearest first
 	private int nNearest;
 	
 	/**
@@ -27,26 +23,10 @@ public class BasicOptimizedNearestNeighborTspSolver extends OptimizedTspSolver {
 	}
 	
 	private void orderNeighbors(){
-		nearestNeighbors = new HashMap<>();
-		sectors.stream().forEach(s -> {
-			
-			List<Sector> sectorList = sectors.stream()
-				.filter(s1 -> !s1.equals(s))
-				.filter(s1 -> shortestPaths.get(s).containsKey(s1))
-				.sorted((s1, s2) -> shortestPaths.get(s).get(s1).compareTo(shortestPaths.get(s).get(s2)))
-				.collect(Collectors.toList());
-			
-			nearestNeighbors.put(sectorMap.get(s), sectorListToByteArray(sectorList));
-		});
-	}
-	
-	private byte[] sectorListToByteArray(List<Sector> sectors){
-		byte[] array = new byte[sectors.size()];
-		int i = 0;
-		for(Sector s : sectors){
-			array[i++] = sectorMap.get(s);
+		nearestNeighbors = new int[numSectors + 1][];
+		for(int s = 1; s <= numSectors; s++){
+			nearestNeighbors[s] = MultiOptimizedNearestNeighborTspSolver.orderNeighbors(distances, s);
 		}
-		return array;
 	}
 	
 	
@@ -72,22 +52,27 @@ public class BasicOptimizedNearestNeighborTspSolver extends OptimizedTspSolver {
 			nNearest = sectors.size();
 		}		
 		
-		boolean[] usedSectors = new boolean[numSectors+1];
-		Queue<TspNode2> queue = TspNode2.queueFrom(getInitialNodes(), sectorMap);
+		BoundStrategy boundStrategy = newBoundStrategy();
+		long expanded = 0;
+		Queue<TspNode2> queue = newFrontier(getMemoryBudget());
+		Queue<TspNode2> roots = TspNode2.queueFrom(getInitialNodes(), sectorMap, distances);
+		Incumbent warm = warmStart(roots);
+		queue.addAll(roots);
 		
-		//start with max bound and no best path
-		int bound = Integer.MAX_VALUE;
-		byte[] bestPath = null;
+		//start with the warm start path, if any, otherwise max bound and no best path
+		int bound = warm.getCost();
+		int[] bestPath = warm.getPath();
 		TspNode2 longest = queue.peek();
 		
 		int count = 0;
+		long start = System.nanoTime();
+		int diveInterval = getDiveInterval();
 		while(!queue.isEmpty()){
 			TspNode2 curr = queue.poll();
 			
 			if(curr.getBound() > bound){
 				logger.info("Searched all bounds less than " + bound + ", exiting");
-				List<Sector> retList = TspUtilities.sectorList(bestPath, sectorList);
-				return retList;
+				break;
 			}
 			
 			if(curr.getLength() > longest.getLength()){
@@ -98,40 +83,55 @@ public class BasicOptimizedNearestNeighborTspSolver extends OptimizedTspSolver {
 				logState(queue.size(), curr.getBound(), bestPath, longest.getPath());
 			}
 			
-			//if the current path covers all sectors, it's a full path, so set it as our next best
-			if(curr.getLength() == numSectors){
-				if(curr.getBound() < bound) {
-					logger.info("Cost " + curr.getBound() + " path found, saving");
-					logger.info(TspUtilities.routeString(TspUtilities.sectorList(curr.getPath(), sectorList)));
-					bestPath = curr.getPath();
-					bound = curr.getBound();
+			//every so often, dive from the best node straight down to a complete path
+			boolean diving = diveInterval > 0 && (count - 1) % diveInterval == 0;
+			while(curr != null){
+				//if the current path covers all sectors, it's a full path, so set it as our next best
+				if(curr.getLength() == numSectors){
+					if(curr.getBound() < bound) {
+						if(bestPath == null){
+							logFirstSolution(start, expanded, curr.getBound());
+						}
+						logger.info("Cost " + curr.getBound() + " path found, saving");
+						logger.info(TspUtilities.routeString(TspUtilities.sectorList(curr.getPath(), sectorList)));
+						bestPath = curr.getPath();
+						bound = curr.getBound();
+					}
+					break;
 				}
-				continue;
-			}
-			
-			byte[] currPath = curr.getPath();
-			byte[] nearest = nearestNeighbors.get(currPath[curr.getLength()-1]);
-			int cnt = 0;
-			
-			//Add all next steps to queue (which will sort them by bound)
-			Arrays.fill(usedSectors, false);
-			for(byte i = 0; i < curr.getLength(); i++){
-				usedSectors[curr.getPath()[i]] = true;
-			}
-			for(byte i : nearest)
-				if(!usedSectors[i]){
-					byte[] newPath = Arrays.copyOf(curr.getPath(), numSectors);
-					newPath[curr.getLength()] = i;
-					int newBound = getBoundForPath(newPath, usedSectors);
-					if(newBound <= bound){
-						queue.add(new TspNode2(newBound, newPath, curr.getEnding(), curr.getLength() + 1));
+				
+				int[] nearest = nearestNeighbors[curr.getLast()];
+				int cnt = 0;
+				
+				//Add all next steps to queue (which will sort them by bound), except
+				//the cheapest when diving, which is expanded next instead
+				boundStrategy.expand(curr.getVisited(), curr.getLast(), curr.getLength(), curr.getPrefixCost());
+				expanded++;
+				TspNode2 cheapest = null;
+				for(int i : nearest)
+					if(!SectorMask.contains(curr.getVisited(), i)){
+						int newBound = boundStrategy.childBound(i);
+						if(newBound <= bound){
+							TspNode2 child = curr.child(i, newBound, getChildPrefixCost(curr, i));
+							if(diving && (cheapest == null || child.compareTo(cheapest) < 0)){
+								TspNode2 swap = cheapest;
+								cheapest = child;
+								child = swap;
+							}
+							if(child != null){
+								queue.add(child);
+							}
+						}
+						if(++cnt == nNearest){
+							break;
 					}
-					if(++cnt == nNearest){
-						break;
 				}
+				curr = cheapest;
 			}
 		}
 		
+		queue.clear(); //also removes any nodes spilled to disk
+		logExpanded(expanded, boundStrategy);
 		List<Sector> retList = TspUtilities.sectorList(bestPath, sectorList);
 		return retList;
 	}
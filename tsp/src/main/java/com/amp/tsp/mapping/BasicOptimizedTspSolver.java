@@ -1,6 +1,5 @@
 package com.amp.tsp.mapping;
 
-import java.util.Arrays;
 import java.util.List;
 import java.util.Queue;
 import java.util.Set;
@@ -24,22 +23,29 @@ public class BasicOptimizedTspSolver extends OptimizedTspSolver {
 	 */
 	@Override
 	public List<Sector> solve() {
-		boolean[] usedSectors = new boolean[numSectors+1];
-		Queue<TspNode2> queue = TspNode2.queueFrom(getInitialNodes(), sectorMap);
+		BoundStrategy boundStrategy = newBoundStrategy();
+		long expanded = 0;
+		Queue<TspNode2> queue = newFrontier(getMemoryBudget() / 2);
+		Queue<TspNode2> roots = TspNode2.queueFrom(getInitialNodes(), sectorMap, distances);
+		Incumbent warm = warmStart(roots);
+		queue.addAll(roots);
+		DominanceTable dominance = newDominanceTable();
+		queue.forEach(dominance::offer);
 		
-		//start with max bound and no best path
-		int bound = Integer.MAX_VALUE;
-		byte[] bestPath = null;
+		//start with the warm start path, if any, otherwise max bound and no best path
+		int bound = warm.getCost();
+		int[] bestPath = warm.getPath();
 		TspNode2 longest = queue.peek();
 		
 		int count = 0;
+		long start = System.nanoTime();
+		int diveInterval = getDiveInterval();
 		while(!queue.isEmpty()){
 			TspNode2 curr = queue.poll();
 			
 			if(curr.getBound() > bound){
 				logger.info("Searched all bounds less than " + bound + ", exiting");
-				List<Sector> retList = TspUtilities.sectorList(bestPath, sectorList);
-				return retList;
+				break;
 			}
 			
 			if(curr.getLength() > longest.getLength()){
@@ -50,35 +56,58 @@ public class BasicOptimizedTspSolver extends OptimizedTspSolver {
 				logState(queue.size(), curr.getBound(), bestPath, longest.getPath());
 			}
 			
-			//if the current path covers all sectors, it's a full path, so set it as our next best
-			if(curr.getLength() == numSectors){
-				if(curr.getBound() < bound) {
-					logger.info("Cost " + curr.getBound() + " path found, saving");
-					logger.info(TspUtilities.routeString(TspUtilities.sectorList(curr.getPath(), sectorList)));
-					bestPath = curr.getPath();
-					bound = curr.getBound();
-				}
+			//a cheaper path to the same sectors and last sector was found after this one was queued
+			if(curr.getLength() < numSectors && dominance.isDominated(curr)){
 				continue;
 			}
 			
-			//Add all next steps to queue (which will sort them by bound)
-			Arrays.fill(usedSectors, false);
-			for(byte i = 0; i < curr.getLength(); i++){
-				usedSectors[curr.getPath()[i]] = true;
-			}
-			for(byte i = 1; i <= numSectors; i++){
-				if(!usedSectors[i]){
-					byte[] newPath = Arrays.copyOf(curr.getPath(), numSectors);
-					newPath[curr.getLength()] = i;
-					int newBound = getBoundForPath(newPath, usedSectors);
+			//every so often, dive from the best node straight down to a complete path
+			boolean diving = diveInterval > 0 && (count - 1) % diveInterval == 0;
+			while(curr != null){
+				//if the current path covers all sectors, it's a full path, so set it as our next best
+				if(curr.getLength() == numSectors){
+					if(curr.getBound() < bound) {
+						if(bestPath == null){
+							logFirstSolution(start, expanded, curr.getBound());
+						}
+						logger.info("Cost " + curr.getBound() + " path found, saving");
+						logger.info(TspUtilities.routeString(TspUtilities.sectorList(curr.getPath(), sectorList)));
+						bestPath = curr.getPath();
+						bound = curr.getBound();
+					}
+					break;
+				}
+				
+				//Add all next steps to queue (which will sort them by bound), except
+				//the cheapest when diving, which is expanded next instead
+				boundStrategy.expand(curr.getVisited(), curr.getLast(), curr.getLength(), curr.getPrefixCost());
+				expanded++;
+				TspNode2 cheapest = null;
+				long[] visited = curr.getVisited();
+				for(int i = SectorMask.next(visited, 1, numSectors); i != SectorMask.NONE; i = SectorMask.next(visited, i + 1, numSectors)){
+					int newBound = boundStrategy.childBound(i);
 					if(newBound <= bound){
-						queue.add(new TspNode2(newBound, newPath, curr.getEnding(), curr.getLength() + 1));
+						TspNode2 child = curr.child(i, newBound, getChildPrefixCost(curr, i));
+						if(!dominance.offer(child)){
+							continue;
+						}
+						if(diving && (cheapest == null || child.compareTo(cheapest) < 0)){
+							TspNode2 swap = cheapest;
+							cheapest = child;
+							child = swap;
+						}
+						if(child != null){
+							queue.add(child);
+						}
 					}
-					
 				}
+				curr = cheapest;
 			}
 		}
 		
+		queue.clear(); //also removes any nodes spilled to disk
+		logExpanded(expanded, boundStrategy);
+		logger.info("Dominance pruned " + dominance.getPruned() + " nodes across " + dominance.size() + " states");
 		List<Sector> retList = TspUtilities.sectorList(bestPath, sectorList);
 		return retList;
 	}
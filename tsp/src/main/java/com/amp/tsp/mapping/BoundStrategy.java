@@ -0,0 +1,30 @@
+package com.amp.tsp.mapping;
+
+/**
+ * Lower bound used by the optimized solvers to order and prune partial paths. Bounds are
+ * calculated for all of a node's children at once: {@link #expand} is called with the node
+ * being expanded, after which {@link #childBound} may be called for any sector not on its path.
+ * 
+ * Implementations keep scratch space between those calls, so each thread needs its own instance.
+ * Solvers create them with the factory passed to {@link OptimizedTspSolver#setBoundStrategy}.
+ * 
+ * @author alex
+ */
+public interface BoundStrategy {
+
+	/**
+	 * Prepares to bound the children of a node.
+	 * @param visited SectorMask of the sectors on the node's path
+	 * @param last Id of the last sector on the node's path
+	 * @param length Number of sectors on the node's path
+	 * @param prefixCost Cost of the node's path so far
+	 */
+	void expand(long[] visited, int last, int length, int prefixCost);
+
+	/**
+	 * @param child Id of a sector not on the expanded node's path
+	 * @return Lower bound for the cost of any complete path that starts with the expanded
+	 * 	node's path followed by child
+	 */
+	int childBound(int child);
+}
@@ -0,0 +1,249 @@
+package com.amp.tsp.mapping;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+/**
+ * Priority queue of nodes that uses their integer bounds directly instead of comparing them.
+ * Nodes are kept in a window of buckets, one per bound, starting at the lowest bound seen;
+ * within a bucket there is a stack per path length, so the order matches
+ * {@link TspNode2#compareTo}: lowest bound first, then longest path first. Adding and polling
+ * are amortized O(1) as long as the bounds in the queue span less than the window, which is
+ * the usual case since nodes are only queued if their bound is below the incumbent. Nodes that
+ * fall outside the window are kept in an ordinary PriorityQueue until the window reaches them.
+ *
+ * Not thread-safe.
+ *
+ * @author alex
+ */
+class BucketQueue extends AbstractQueue<TspNode2> {
+	/** Default number of consecutive bounds held in buckets */
+	public static final int DEFAULT_WINDOW = 1 << 12;
+
+	private final int maxLength;
+	private final Bucket[] buckets;
+	private final PriorityQueue<TspNode2> overflow = new PriorityQueue<>();
+
+	private int base = -1; //bound of buckets[0], or -1 before the first node is added
+	private int cursor; //no bucket below this index holds any nodes
+	private int bucketed; //number of nodes in buckets
+
+	/**
+	 * @param numSectors Number of sectors in the map, the longest possible path
+	 */
+	public BucketQueue(int numSectors){
+		this(numSectors, DEFAULT_WINDOW);
+	}
+
+	public BucketQueue(int numSectors, int window){
+		this.maxLength = numSectors;
+		this.buckets = new Bucket[window];
+	}
+
+	@Override
+	public boolean offer(TspNode2 node) {
+		if(base < 0){
+			base = node.getBound();
+			cursor = 0;
+		}
+		int index = node.getBound() - base;
+		if(index < 0 || index >= buckets.length){
+			overflow.add(node);
+			return true;
+		}
+		Bucket bucket = buckets[index];
+		if(bucket == null){
+			bucket = new Bucket(maxLength);
+			buckets[index] = bucket;
+		}
+		bucket.push(node);
+		bucketed++;
+		if(index < cursor){
+			cursor = index;
+		}
+		return true;
+	}
+
+	@Override
+	public TspNode2 poll() {
+		Bucket bucket = lowestBucket();
+		TspNode2 head = overflow.peek();
+		if(bucket == null){
+			if(head == null){
+				return null;
+			}
+			refill();
+			return poll();
+		}
+		if(head != null && head.compareTo(bucket.peek()) < 0){
+			return overflow.poll();
+		}
+		bucketed--;
+		return bucket.pop();
+	}
+
+	@Override
+	public TspNode2 peek() {
+		Bucket bucket = lowestBucket();
+		TspNode2 head = overflow.peek();
+		if(bucket == null){
+			return head;
+		}
+		TspNode2 node = bucket.peek();
+		return head != null && head.compareTo(node) < 0 ? head : node;
+	}
+
+	@Override
+	public int size() {
+		return bucketed + overflow.size();
+	}
+
+	@Override
+	public boolean removeIf(Predicate<? super TspNode2> filter) {
+		boolean removed = overflow.removeIf(filter);
+		for(int i = cursor; i < buckets.length; i++){
+			if(buckets[i] != null){
+				int before = buckets[i].size;
+				removed |= buckets[i].removeIf(filter);
+				bucketed -= before - buckets[i].size;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * @return Iterator over a snapshot of the nodes, in no particular order
+	 */
+	@Override
+	public Iterator<TspNode2> iterator() {
+		List<TspNode2> snapshot = new ArrayList<>(overflow);
+		for(Bucket bucket : buckets){
+			if(bucket != null){
+				bucket.addTo(snapshot);
+			}
+		}
+		return snapshot.iterator();
+	}
+
+	/**
+	 * Moves the cursor to the first non-empty bucket.
+	 * @return The bucket, or null if every bucket is empty
+	 */
+	private Bucket lowestBucket(){
+		if(bucketed == 0){
+			return null;
+		}
+		while(buckets[cursor] == null || buckets[cursor].size == 0){
+			cursor++;
+		}
+		return buckets[cursor];
+	}
+
+	/**
+	 * Called when the buckets are empty: slides the window to start at the lowest overflow
+	 * bound and moves every overflow node that now fits into the buckets.
+	 */
+	private void refill(){
+		base = overflow.peek().getBound();
+		cursor = 0;
+		while(!overflow.isEmpty() && overflow.peek().getBound() - base < buckets.length){
+			offer(overflow.poll());
+		}
+	}
+
+	/**
+	 * Nodes with the same bound, as one stack per path length.
+	 */
+	private static class Bucket {
+		private final TspNode2[][] stacks;
+		private final int[] sizes;
+		private final long[] nonEmpty; //bit per length with a non-empty stack
+		private int size;
+
+		Bucket(int maxLength){
+			stacks = new TspNode2[maxLength + 1][];
+			sizes = new int[maxLength + 1];
+			nonEmpty = new long[(maxLength >>> 6) + 1];
+		}
+
+		void push(TspNode2 node){
+			int length = node.getLength();
+			TspNode2[] stack = stacks[length];
+			if(stack == null){
+				stack = new TspNode2[4];
+				stacks[length] = stack;
+			} else if(sizes[length] == stack.length){
+				stack = Arrays.copyOf(stack, stack.length * 2);
+				stacks[length] = stack;
+			}
+			stack[sizes[length]++] = node;
+			nonEmpty[length >>> 6] |= 1L << length;
+			size++;
+		}
+
+		TspNode2 peek(){
+			int length = longest();
+			return stacks[length][sizes[length] - 1];
+		}
+
+		TspNode2 pop(){
+			int length = longest();
+			TspNode2[] stack = stacks[length];
+			TspNode2 node = stack[--sizes[length]];
+			stack[sizes[length]] = null;
+			if(sizes[length] == 0){
+				nonEmpty[length >>> 6] &= ~(1L << length);
+			}
+			size--;
+			return node;
+		}
+
+		boolean removeIf(Predicate<? super TspNode2> filter){
+			boolean removed = false;
+			for(int length = 0; length < stacks.length; length++){
+				TspNode2[] stack = stacks[length];
+				int kept = 0;
+				for(int i = 0; i < sizes[length]; i++){
+					if(filter.test(stack[i])){
+						removed = true;
+					} else {
+						stack[kept++] = stack[i];
+					}
+				}
+				for(int i = kept; i < sizes[length]; i++){
+					stack[i] = null;
+				}
+				size -= sizes[length] - kept;
+				sizes[length] = kept;
+				if(kept == 0){
+					nonEmpty[length >>> 6] &= ~(1L << length);
+				}
+			}
+			return removed;
+		}
+
+		void addTo(List<TspNode2> nodes){
+			for(int length = 0; length < stacks.length; length++){
+				for(int i = 0; i < sizes[length]; i++){
+					nodes.add(stacks[length][i]);
+				}
+			}
+		}
+
+		/**
+		 * @return Longest length with a non-empty stack; only valid if size &gt; 0
+		 */
+		private int longest(){
+			for(int word = nonEmpty.length - 1; ; word--){
+				if(nonEmpty[word] != 0){
+					return (word << 6) + 63 - Long.numberOfLeadingZeros(nonEmpty[word]);
+				}
+			}
+		}
+	}
+}
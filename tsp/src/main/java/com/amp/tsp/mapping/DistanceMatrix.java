@@ -0,0 +1,87 @@
+package com.amp.tsp.mapping;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dense copy of a shortest path map. Each sector is given an id from 1 to n
+ * (0 is reserved for "no sector" in paths) and the distances are kept in
+ * a single flat int[] so the solvers' inner loops never hash a Sector or unbox
+ * an Integer.
+ *
+ * @author alex
+ */
+public class DistanceMatrix {
+	/** Distance stored between two sectors that have no path between them */
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	private final int numSectors;
+	private final int stride;
+	private final int[] distances;
+	private final Sector[] sectorList;
+	private final Map<Sector, Integer> sectorIds;
+
+	/**
+	 * @param sectors The sectors to index. Ids are assigned in iteration order.
+	 * @param shortestPaths Map in which map.get(s1).get(s2) returns the distance between s1 and s2
+	 */
+	public DistanceMatrix(Set<Sector> sectors, Map<Sector, Map<Sector, Integer>> shortestPaths){
+		numSectors = sectors.size();
+		stride = numSectors + 1;
+		distances = new int[stride * stride];
+		sectorList = new Sector[stride];
+		sectorIds = new HashMap<>();
+
+		int id = 1;
+		for(Sector s : sectors){
+			sectorIds.put(s, id);
+			sectorList[id++] = s;
+		}
+
+		for(int i = 1; i <= numSectors; i++){
+			Map<Sector, Integer> edges = shortestPaths.get(sectorList[i]);
+			for(int j = 1; j <= numSectors; j++){
+				if(i == j){
+					continue;
+				}
+				Integer distance = edges == null ? null : edges.get(sectorList[j]);
+				distances[i * stride + j] = distance == null ? UNREACHABLE : distance;
+			}
+		}
+	}
+
+	/**
+	 * @return The shortest distance from sector id <code>from</code> to sector id <code>to</code>,
+	 * 	or {@link #UNREACHABLE} if there is no path.
+	 */
+	public int get(int from, int to){
+		return distances[from * stride + to];
+	}
+
+	public boolean isReachable(int from, int to){
+		return distances[from * stride + to] != UNREACHABLE;
+	}
+
+	/**
+	 * @return Number of sectors; valid ids run from 1 to this value inclusive.
+	 */
+	public int size(){
+		return numSectors;
+	}
+
+	public int getId(Sector sector){
+		return sectorIds.get(sector);
+	}
+
+	public Sector getSector(int id){
+		return sectorList[id];
+	}
+
+	/**
+	 * @return Sectors indexed by id. Index 0 is always null.
+	 */
+	public Sector[] getSectorList(){
+		return sectorList;
+	}
+}
@@ -0,0 +1,144 @@
+package com.amp.tsp.mapping;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Records the cheapest prefix cost seen for each (last sector, visited set) state reached
+ * during a branch and bound search. Two partial paths that visit the same sectors and end on
+ * the same sector can be completed in exactly the same ways, so only the cheaper of them can
+ * lead to an optimal path and the other can be dropped. This plays the role of {@link CacheKey}
+ * for the optimized solvers, keyed by sector id and {@link SectorMask} instead of Sectors.
+ *
+ * The table holds at most a memory budget's worth of states. Once it is full, nodes are still
+ * checked against the states already recorded, but new states are not recorded, so nodes
+ * reaching them are simply kept. Dropping fewer nodes never makes the search wrong, only slower.
+ *
+ * Safe for use by multiple threads.
+ *
+ * @author alex
+ */
+class DominanceTable {
+	private static final Logger logger = Logger.getLogger(DominanceTable.class);
+
+	private final ConcurrentHashMap<StateKey, Integer> bestPrefixCosts = new ConcurrentHashMap<>();
+	private final LongAdder pruned = new LongAdder();
+	private final long maxStates;
+	private final AtomicBoolean full = new AtomicBoolean();
+
+	/**
+	 * @param numSectors Number of sectors in the map
+	 * @param memoryBudget Approximate number of bytes the recorded states may take up
+	 */
+	public DominanceTable(int numSectors, long memoryBudget){
+		this.maxStates = Math.max(1, memoryBudget / bytesPerState(numSectors));
+	}
+
+	/**
+	 * @return Rough heap footprint of one recorded state: the key, the visited set it holds on
+	 * 	to (which outlives its node if the node is spilled), the map entry and the boxed cost.
+	 * 	Endings are shared between many nodes, so they are not counted.
+	 */
+	public static long bytesPerState(int numSectors){
+		long key = 32;
+		long visited = (16 + 8 * ((numSectors >>> 6) + 1) + 7) & ~7L;
+		long entry = 32 + 8; //map node and its table slot
+		long cost = 16;
+		return key + visited + entry + cost;
+	}
+
+	/**
+	 * Records the node's prefix cost if it is the cheapest yet seen for its state, and the
+	 * state is already recorded or the table has room for it.
+	 * @return False if the node is dominated by a path already recorded, in which case it should be dropped
+	 */
+	public boolean offer(TspNode2 node){
+		StateKey key = new StateKey(node);
+		int cost = node.getPrefixCost();
+		Integer previous = bestPrefixCosts.get(key);
+		if(previous == null){
+			if(bestPrefixCosts.mappingCount() >= maxStates){
+				if(full.compareAndSet(false, true)){
+					logger.info("Dominance table full at " + maxStates + " states; no longer recording new states");
+				}
+				return true;
+			}
+			previous = bestPrefixCosts.putIfAbsent(key, cost);
+		}
+		while(previous != null){
+			if(previous <= cost){
+				pruned.increment();
+				return false;
+			}
+			if(bestPrefixCosts.replace(key, previous, cost)){
+				return true;
+			}
+			previous = bestPrefixCosts.putIfAbsent(key, cost);
+		}
+		return true;
+	}
+
+	/**
+	 * @return True if a strictly cheaper path to the node's state has been recorded since
+	 * 	the node was offered
+	 */
+	public boolean isDominated(TspNode2 node){
+		Integer best = bestPrefixCosts.get(new StateKey(node));
+		if(best != null && best < node.getPrefixCost()){
+			pruned.increment();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return Number of nodes rejected or found dominated so far
+	 */
+	public long getPruned(){
+		return pruned.sum();
+	}
+
+	public int size(){
+		return bestPrefixCosts.size();
+	}
+
+	/**
+	 * Last sector, visited set and required ending of a node. Holds on to the node's
+	 * arrays rather than copying them, which is safe because they are not modified once
+	 * the node has been created.
+	 */
+	private static class StateKey {
+		private final int last;
+		private final long[] visited;
+		private final int[] ending;
+		private final int hash;
+
+		StateKey(TspNode2 node){
+			this.last = node.getLast();
+			this.visited = node.getVisited();
+			this.ending = node.getEnding();
+			this.hash = (31 * Arrays.hashCode(visited) + Arrays.hashCode(ending)) * 31 + last;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null || getClass() != obj.getClass())
+				return false;
+			StateKey other = (StateKey) obj;
+			return last == other.last && hash == other.hash
+					&& Arrays.equals(visited, other.visited)
+					&& Arrays.equals(ending, other.ending);
+		}
+	}
+}
@@ -0,0 +1,347 @@
+package com.amp.tsp.mapping;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+import com.amp.tsp.mapping.TspSolution.TspBuilder;
+
+/**
+ * Population-based heuristic solver for maps of roughly 50 to 300 sectors. Paths are bred with
+ * a greedy, directed form of edge recombination: the child follows whichever parent's successor
+ * of its last sector is nearer, and only falls back to the nearest unvisited sector when both
+ * successors are already used. Each child is then driven to a local optimum by a
+ * {@link LocalSearchImprover} (2-opt, Or-opt and swap moves), and replaces the worst member of
+ * the population if it is cheaper and not a duplicate.
+ *
+ * The population is split into islands that evolve independently on a {@link ForkJoinPool}.
+ * Every {@link #MIGRATION_INTERVAL} generations, each island's best path replaces the worst path
+ * of the next island in a ring. Paths are stored as int[] sector ids and distances are read
+ * straight from the flat array of the {@link DistanceMatrix}.
+ *
+ * Every member shares the fixed head and ending of the cheapest greedy path, so sectors fixed by
+ * a required seed or ending constraint are never moved.
+ *
+ * @author alex
+ */
+public class GeneticTspSolver extends TspSolver {
+	/** Default time spent breeding, in milliseconds */
+	public static final long DEFAULT_TIME_BUDGET = 2000;
+	/** Default number of paths in each island */
+	public static final int DEFAULT_POPULATION = 24;
+	/** Number of generations each island evolves between migrations */
+	public static final int MIGRATION_INTERVAL = 5;
+
+	private long timeBudget = DEFAULT_TIME_BUDGET;
+	private int populationSize = DEFAULT_POPULATION;
+	private int numIslands = Runtime.getRuntime().availableProcessors();
+	private long seed = 0;
+
+	//range of the path shared by every member; movable sectors are path[lo..hi)
+	private int lo, hi;
+
+	/**
+	 * @see TspSolver#TspSolver(TspBuilder)
+	 */
+	public GeneticTspSolver(TspBuilder builder) {
+		super(builder);
+	}
+
+	/**
+	 * @param timeBudget Milliseconds spent breeding in subsequent calls to solve()
+	 */
+	public void setTimeBudget(long timeBudget){
+		this.timeBudget = timeBudget;
+	}
+
+	/**
+	 * @param populationSize Number of paths in each island
+	 */
+	public void setPopulationSize(int populationSize){
+		this.populationSize = Math.max(2, populationSize);
+	}
+
+	/**
+	 * @param numIslands Number of islands, each evolved by its own task
+	 */
+	public void setNumIslands(int numIslands){
+		this.numIslands = Math.max(1, numIslands);
+	}
+
+	/**
+	 * @param seed Seed for the random choices, so that runs can be repeated
+	 */
+	public void setSeed(long seed){
+		this.seed = seed;
+	}
+
+	@Override
+	public List<Sector> solve() {
+		List<int[]> starts = starts();
+		if(starts.isEmpty()){
+			logger.warn("No complete path found");
+			return new ArrayList<>();
+		}
+		int[] best = starts.get(0);
+		if(hi - lo < 2){
+			return TspUtilities.sectorList(best, distances.getSectorList());
+		}
+
+		SplittableRandom random = new SplittableRandom(seed);
+		Island[] islands = new Island[numIslands];
+		for(int i = 0; i < numIslands; i++){
+			islands[i] = new Island(starts, random.split());
+		}
+		long bestCost = Long.MAX_VALUE;
+		for(Island island : islands){
+			if(island.costs[island.best()] < bestCost){
+				bestCost = island.costs[island.best()];
+				best = island.population[island.best()].clone();
+			}
+		}
+		logger.info("Initial population of " + numIslands + " x " + populationSize + ", best cost " + bestCost);
+
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for(Island island : islands){
+			tasks.add(() -> {
+				island.evolve(MIGRATION_INTERVAL);
+				return null;
+			});
+		}
+		ForkJoinPool pool = new ForkJoinPool(numIslands);
+		long start = System.currentTimeMillis();
+		int epoch = 0;
+		try {
+			for(long elapsed = 0; elapsed < timeBudget; elapsed = System.currentTimeMillis() - start, epoch++){
+				pool.invokeAll(tasks);
+				for(int i = 0; i < numIslands; i++){
+					Island island = islands[i];
+					int fittest = island.best();
+					if(island.costs[fittest] < bestCost){
+						bestCost = island.costs[fittest];
+						best = island.population[fittest].clone();
+						logger.info("Cost " + bestCost + " path found after " + elapsed + "ms");
+					}
+					islands[(i + 1) % numIslands].accept(island.population[fittest].clone(), island.costs[fittest]);
+				}
+				updateProgress((int)(elapsed * sectors.size() / timeBudget));
+			}
+		} finally {
+			pool.shutdown();
+		}
+		logger.info("Bred " + epoch * MIGRATION_INTERVAL + " generations, best cost " + bestCost);
+		return TspUtilities.sectorList(best, distances.getSectorList());
+	}
+
+	/**
+	 * Builds greedy paths from the initial nodes and sets lo and hi from the cheapest of them.
+	 * @return The cheapest greedy path first, followed by any others with the same fixed head
+	 * 	and ending
+	 */
+	private List<int[]> starts(){
+		LocalSearchImprover improver = new LocalSearchImprover(distances);
+		List<int[]> paths = new ArrayList<>();
+		List<Integer> heads = new ArrayList<>(), tails = new ArrayList<>();
+		int cheapest = -1;
+		long cheapestCost = Long.MAX_VALUE;
+		for(TspNode root : getInitialNodes()){
+			int[] ending = ids(root.getEnding());
+			int[] path = nearestNeighborPath(ids(root.getPath()), ending);
+			if(path == null){
+				continue;
+			}
+			long cost = improver.cost(path);
+			if(cost < cheapestCost){
+				cheapest = paths.size();
+				cheapestCost = cost;
+			}
+			paths.add(path);
+			heads.add(useSeedsOnly || root.getPath().size() > 1 ? root.getPath().size() : 0);
+			tails.add(ending.length);
+		}
+		List<int[]> starts = new ArrayList<>();
+		if(cheapest < 0){
+			return starts;
+		}
+		int[] best = paths.get(cheapest);
+		lo = heads.get(cheapest);
+		hi = best.length - tails.get(cheapest);
+		starts.add(best);
+		for(int i = 0; i < paths.size(); i++){
+			int[] path = paths.get(i);
+			if(i != cheapest && heads.get(i) == lo && best.length - tails.get(i) == hi && sameEnds(path, best)){
+				starts.add(path);
+			}
+		}
+		return starts;
+	}
+
+	/**
+	 * @return True if a and b agree outside of the movable range
+	 */
+	private boolean sameEnds(int[] a, int[] b){
+		for(int k = 0; k < a.length; k++){
+			if((k < lo || k >= hi) && a[k] != b[k]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A population evolved by one task at a time, with its own random numbers and improver.
+	 */
+	private class Island {
+		private final int[][] population;
+		private final long[] costs;
+		private final SplittableRandom random;
+		private final LocalSearchImprover improver = new LocalSearchImprover(distances);
+
+		//crossover workspace, indexed by sector id
+		private final int[] nextA, nextB; //successor of each sector in each parent, 0 for none
+		private final boolean[] used;
+
+		/**
+		 * Starts from the greedy paths, then fills the population with locally optimal
+		 * shuffles of the cheapest one.
+		 */
+		Island(List<int[]> starts, SplittableRandom random){
+			this.random = random;
+			int n = distances.size();
+			nextA = new int[n + 1];
+			nextB = new int[n + 1];
+			used = new boolean[n + 1];
+			population = new int[populationSize][];
+			costs = new long[populationSize];
+			for(int i = 0; i < populationSize; i++){
+				int[] path;
+				if(i < starts.size()){
+					path = starts.get(i).clone();
+				} else {
+					path = starts.get(0).clone();
+					for(int k = hi - 1; k > lo; k--){
+						int j = lo + random.nextInt(k - lo + 1);
+						int swap = path[k];
+						path[k] = path[j];
+						path[j] = swap;
+					}
+				}
+				population[i] = path;
+				costs[i] = improve(path);
+			}
+		}
+
+		/**
+		 * Breeds a population's worth of children for each generation.
+		 */
+		void evolve(int generations){
+			for(int child = generations * populationSize; child > 0; child--){
+				int[] a = population[tournament()], b = population[tournament()];
+				if(a == b){
+					continue;
+				}
+				int[] path = crossover(a, b);
+				accept(path, improve(path));
+			}
+		}
+
+		/**
+		 * Replaces the worst member with path if path is cheaper and no member has the same cost.
+		 */
+		void accept(int[] path, long cost){
+			int worst = 0;
+			for(int i = 0; i < populationSize; i++){
+				if(costs[i] == cost){
+					return;
+				}
+				if(costs[i] > costs[worst]){
+					worst = i;
+				}
+			}
+			if(cost < costs[worst]){
+				population[worst] = path;
+				costs[worst] = cost;
+			}
+		}
+
+		int best(){
+			int best = 0;
+			for(int i = 1; i < populationSize; i++){
+				if(costs[i] < costs[best]){
+					best = i;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * @return Index of the cheaper of two random members
+		 */
+		private int tournament(){
+			int i = random.nextInt(populationSize), j = random.nextInt(populationSize);
+			return costs[i] <= costs[j] ? i : j;
+		}
+
+		/**
+		 * Directed edge recombination: keeps the fixed head and ending, and fills the movable
+		 * range by stepping to the nearer unused successor of the last sector in either parent,
+		 * or to the nearest unused sector if there is none.
+		 */
+		private int[] crossover(int[] a, int[] b){
+			int n = a.length;
+			for(int k = 0; k < n; k++){
+				nextA[a[k]] = k + 1 < n ? a[k + 1] : 0;
+				nextB[b[k]] = k + 1 < n ? b[k + 1] : 0;
+				used[a[k]] = k < lo || k >= hi;
+			}
+			int[] child = a.clone();
+			int last = lo > 0 ? a[lo - 1] : 0;
+			for(int k = lo; k < hi; k++){
+				int next;
+				if(last == 0){
+					next = random.nextBoolean() ? a[lo] : b[lo];
+				} else {
+					next = nearer(last, nextA[last], nextB[last]);
+					if(next == 0){
+						next = nearestUnused(last);
+					}
+				}
+				child[k] = next;
+				used[next] = true;
+				last = next;
+			}
+			return child;
+		}
+
+		/**
+		 * @return Whichever of the unused sectors x and y is nearer to last, or 0 if both are used
+		 */
+		private int nearer(int last, int x, int y){
+			boolean useX = x != 0 && !used[x], useY = y != 0 && !used[y];
+			if(useX && useY){
+				return distances.get(last, x) <= distances.get(last, y) ? x : y;
+			}
+			return useX ? x : useY ? y : 0;
+		}
+
+		private int nearestUnused(int last){
+			int nearest = 0;
+			for(int id = 1; id < used.length; id++){
+				if(!used[id] && (nearest == 0 || distances.get(last, id) < distances.get(last, nearest))){
+					nearest = id;
+				}
+			}
+			return nearest;
+		}
+
+		/**
+		 * Improves path in place.
+		 * @return The cost of the improved path
+		 */
+		private long improve(int[] path){
+			return improver.improve(path, lo, path.length - hi);
+		}
+	}
+}
@@ -0,0 +1,282 @@
+package com.amp.tsp.mapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.stream.IntStream;
+
+import com.amp.tsp.mapping.TspSolution.TspBuilder;
+
+/**
+ * Exact solver using the Held-Karp dynamic program over (set of visited sectors, last sector).
+ * Unlike the branch and bound solvers its running time does not depend on how tight the
+ * bounds are: it always takes O(2^n * n^2) time and O(2^n * n) memory, so it is the fastest
+ * way to an optimal path on small maps. Each layer of subsets of equal size only depends on
+ * the layer before it, so a layer is processed in parallel.
+ *
+ * Seeds and constraints are honored by running the program only over the sectors that are
+ * not part of a fixed starting or ending sequence.
+ *
+ * @author alex
+ */
+public class HeldKarpTspSolver extends TspSolver {
+	/** Largest number of free sectors this solver will attempt, regardless of available memory */
+	public static final int MAX_SECTORS = 25;
+
+	private static final int INFINITY = Integer.MAX_VALUE;
+
+	private int bestCost;
+	private int[] bestPath;
+
+	/**
+	 * @see TspSolver#TspSolver(TspBuilder)
+	 */
+	public HeldKarpTspSolver(TspBuilder builder) {
+		super(builder);
+	}
+
+	/**
+	 * @return True if a map with this many sectors can be solved within {@link #MAX_SECTORS}
+	 * 	and half of the maximum heap size.
+	 */
+	public static boolean supports(int numSectors){
+		if(numSectors > MAX_SECTORS){
+			return false;
+		}
+		long tableBytes = (1L << numSectors) * numSectors * Integer.BYTES;
+		return tableBytes <= Runtime.getRuntime().maxMemory() / 2;
+	}
+
+	@Override
+	public List<Sector> solve() {
+		bestCost = INFINITY;
+		bestPath = null;
+
+		//single-sector starting nodes that share an ending can be solved together, since the
+		//program allows any of them to be the first sector
+		Map<List<Sector>, List<Integer>> startsByEnding = new LinkedHashMap<>();
+		for(TspNode node : getInitialNodes()){
+			int[] ending = toIds(node.getEnding());
+			if(node.getPath().size() == 1){
+				List<Integer> starts = startsByEnding.get(node.getEnding());
+				if(starts == null){
+					starts = new ArrayList<>();
+					startsByEnding.put(node.getEnding(), starts);
+				}
+				starts.add(distances.getId(node.getPath().get(0)));
+			} else {
+				solve(toIds(node.getPath()), new int[0], ending);
+			}
+		}
+		for(Entry<List<Sector>, List<Integer>> entry : startsByEnding.entrySet()){
+			int[] starts = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+			solve(new int[0], starts, toIds(entry.getKey()));
+		}
+
+		if(bestPath == null){
+			logger.warn("No complete path found");
+			return new ArrayList<>();
+		}
+
+		List<Sector> route = new ArrayList<>();
+		for(int id : bestPath){
+			route.add(distances.getSector(id));
+		}
+		logger.info("Cost " + bestCost + " path found");
+		logger.info(TspUtilities.routeString(route));
+		return route;
+	}
+
+	/**
+	 * Finds the cheapest path that begins with prefix (or, if prefix is empty, with any of
+	 * starts), visits every remaining sector and finishes with ending, and saves it if it
+	 * beats the best path found so far.
+	 */
+	private void solve(int[] prefix, int[] starts, int[] ending){
+		boolean[] fixed = new boolean[distances.size() + 1];
+		for(int id : prefix){
+			fixed[id] = true;
+		}
+		for(int id : ending){
+			if(fixed[id]){
+				return; //starting and ending overlap, no valid path
+			}
+			fixed[id] = true;
+		}
+
+		int[] free = IntStream.rangeClosed(1, distances.size()).filter(id -> !fixed[id]).toArray();
+		int m = free.length;
+		if(!supports(m)){
+			logger.error("Cannot solve " + m + " free sectors with Held-Karp, limit is " + MAX_SECTORS);
+			throw new IllegalStateException("Too many sectors for Held-Karp: " + m);
+		}
+
+		long fixedCost = pathCost(prefix) + pathCost(ending);
+		int last = prefix.length == 0 ? 0 : prefix[prefix.length - 1];
+
+		if(m == 0){
+			long cost = ending.length == 0 ? fixedCost : fixedCost + step(last, ending[0]);
+			offer(cost, prefix, new int[0], ending);
+			return;
+		}
+
+		//distances between free sectors, by index into free
+		int[] local = new int[m * m];
+		for(int i = 0; i < m; i++){
+			for(int j = 0; j < m; j++){
+				local[i * m + j] = distances.get(free[i], free[j]);
+			}
+		}
+
+		//dp[mask * m + j] = cheapest path through the free sectors in mask, ending at free[j]
+		int[] dp = new int[(1 << m) * m];
+		Arrays.fill(dp, INFINITY);
+		if(prefix.length > 0){
+			for(int j = 0; j < m; j++){
+				dp[(1 << j) * m + j] = distances.get(last, free[j]);
+			}
+		} else {
+			for(int start : starts){
+				int j = Arrays.binarySearch(free, start);
+				if(j >= 0){
+					dp[(1 << j) * m + j] = 0;
+				}
+			}
+		}
+
+		for(int size = 2; size <= m; size++){
+			Arrays.stream(masksOfSize(m, size))
+				.parallel()
+				.forEach(mask -> relax(dp, local, m, mask));
+		}
+
+		//pick the best last free sector, including the step into the ending
+		int full = (1 << m) - 1;
+		long best = INFINITY;
+		int bestLast = -1;
+		for(int j = 0; j < m; j++){
+			long cost = dp[full * m + j];
+			if(cost == INFINITY){
+				continue;
+			}
+			if(ending.length > 0){
+				cost += step(free[j], ending[0]);
+			}
+			if(cost < best){
+				best = cost;
+				bestLast = j;
+			}
+		}
+		if(bestLast < 0){
+			return;
+		}
+
+		offer(best + fixedCost, prefix, reconstruct(dp, local, m, full, bestLast, free), ending);
+	}
+
+	/**
+	 * @return Every mask of m bits with exactly size of them set, in increasing order, found
+	 * 	with Gosper's hack rather than by checking all 2^m masks
+	 */
+	private static int[] masksOfSize(int m, int size){
+		long count = 1;
+		for(int i = 0; i < size; i++){
+			count = count * (m - i) / (i + 1);
+		}
+		int[] masks = new int[(int)count];
+		int mask = (1 << size) - 1;
+		for(int i = 0; i < masks.length; i++){
+			masks[i] = mask;
+			int lowest = mask & -mask;
+			int ripple = mask + lowest;
+			mask = (((ripple ^ mask) >>> 2) / lowest) | ripple;
+		}
+		return masks;
+	}
+
+	/**
+	 * Fills in dp for every sector in mask, using the values for the subsets one smaller.
+	 */
+	private static void relax(int[] dp, int[] local, int m, int mask){
+		for(int j = 0; j < m; j++){
+			if((mask & (1 << j)) == 0){
+				continue;
+			}
+			int prev = mask ^ (1 << j);
+			int best = INFINITY;
+			for(int i = 0; i < m; i++){
+				if((prev & (1 << i)) == 0){
+					continue;
+				}
+				int cost = dp[prev * m + i];
+				int step = local[i * m + j];
+				if(cost == INFINITY || step == DistanceMatrix.UNREACHABLE){
+					continue;
+				}
+				if(cost < best - step){
+					best = cost + step;
+				}
+			}
+			dp[mask * m + j] = best;
+		}
+	}
+
+	/**
+	 * Walks the table backwards from (mask, last) to recover the order of the free sectors.
+	 */
+	private static int[] reconstruct(int[] dp, int[] local, int m, int mask, int last, int[] free){
+		int[] order = new int[Integer.bitCount(mask)];
+		int j = last;
+		for(int pos = order.length - 1; pos > 0; pos--){
+			order[pos] = free[j];
+			int prev = mask ^ (1 << j);
+			for(int i = 0; i < m; i++){
+				if((prev & (1 << i)) != 0 && dp[prev * m + i] != INFINITY
+						&& local[i * m + j] != DistanceMatrix.UNREACHABLE
+						&& (long)dp[prev * m + i] + local[i * m + j] == dp[mask * m + j]){
+					j = i;
+					break;
+				}
+			}
+			mask = prev;
+		}
+		order[0] = free[j];
+		return order;
+	}
+
+	private void offer(long cost, int[] prefix, int[] middle, int[] ending){
+		if(cost >= bestCost){
+			return;
+		}
+		bestCost = (int)cost;
+		bestPath = new int[prefix.length + middle.length + ending.length];
+		System.arraycopy(prefix, 0, bestPath, 0, prefix.length);
+		System.arraycopy(middle, 0, bestPath, prefix.length, middle.length);
+		System.arraycopy(ending, 0, bestPath, prefix.length + middle.length, ending.length);
+	}
+
+	/**
+	 * @return Distance from one sector to the next, or 0 if there is no previous sector
+	 */
+	private long step(int from, int to){
+		return from == 0 ? 0 : distances.get(from, to);
+	}
+
+	private long pathCost(int[] path){
+		long cost = 0;
+		for(int i = 1; i < path.length; i++){
+			cost += distances.get(path[i - 1], path[i]);
+		}
+		return cost;
+	}
+
+	private int[] toIds(List<Sector> path){
+		if(path == null){
+			return new int[0];
+		}
+		return path.stream().mapToInt(distances::getId).toArray();
+	}
+}
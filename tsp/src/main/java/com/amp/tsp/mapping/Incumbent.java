@@ -0,0 +1,55 @@
+package com.amp.tsp.mapping;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Best complete path found so far by a multi-threaded solver, with its cost. Instances are
+ * immutable so the cost and path are always published together: workers read the current
+ * incumbent from an AtomicReference without locking and only write to it, with a
+ * compare-and-set, when they find a cheaper path.
+ *
+ * @author alex
+ */
+final class Incumbent {
+	/** Placeholder before any complete path has been found */
+	public static final Incumbent NONE = new Incumbent(Integer.MAX_VALUE, null);
+
+	private final int cost;
+	private final int[] path;
+
+	Incumbent(int cost, int[] path){
+		this.cost = cost;
+		this.path = path;
+	}
+
+	public int getCost(){
+		return cost;
+	}
+
+	/**
+	 * @return The path, or null if no complete path has been found
+	 */
+	public int[] getPath(){
+		return path;
+	}
+
+	/**
+	 * Replaces the current incumbent if cost beats it.
+	 * @param path Complete path, which must not be modified afterwards
+	 * @return True if the path was saved
+	 */
+	public static boolean offer(AtomicReference<Incumbent> best, int cost, int[] path){
+		Incumbent current = best.get();
+		Incumbent candidate = null;
+		while(cost < current.cost){
+			if(candidate == null){
+				candidate = new Incumbent(cost, path);
+			}
+			if(best.compareAndSet(current, candidate)){
+				return true;
+			}
+			current = best.get();
+		}
+		return false;
+	}
+}
@@ -0,0 +1,159 @@
+package com.amp.tsp.mapping;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.amp.tsp.mapping.TspSolution.TspBuilder;
+
+/**
+ * Heuristic solver for maps too large for the exact solvers, in the style of chained
+ * Lin-Kernighan. A greedy path is driven to a local optimum by a {@link LocalSearchImprover}
+ * (2-opt, Or-opt and swap moves over candidate lists, with don't-look bits). Each trial then
+ * kicks the best path with a double bridge, which reorders three short segments, and runs the
+ * local search again from just the sectors around the kick. The result is kept if it is no
+ * more expensive. Several restarts begin from the greedy paths of different starting sectors.
+ *
+ * Segments are only ever moved, never reversed, by the kick, so it is safe for asymmetric
+ * distances. Sectors fixed by a required seed or ending constraint are never moved.
+ *
+ * @author alex
+ */
+public class LinKernighanTspSolver extends TspSolver {
+	/** Smallest map for which {@link TspSolution} prefers this solver below maximum accuracy */
+	public static final int MIN_SECTORS = 40;
+	/** Default number of kicks per sector in each restart */
+	public static final int DEFAULT_TRIALS_PER_SECTOR = 20;
+	/** Default number of restarts from different starting sectors */
+	public static final int DEFAULT_RESTARTS = 3;
+
+	private static final int KICK_SEGMENT = 30; //longest segment moved by a kick
+
+	private int trialsPerSector = DEFAULT_TRIALS_PER_SECTOR;
+	private int restarts = DEFAULT_RESTARTS;
+	private long seed = 0;
+
+	/**
+	 * @see TspSolver#TspSolver(TspBuilder)
+	 */
+	public LinKernighanTspSolver(TspBuilder builder) {
+		super(builder);
+	}
+
+	/**
+	 * @param trialsPerSector Number of kicks per sector in each restart; more trials give
+	 * 	cheaper paths in more time
+	 */
+	public void setTrialsPerSector(int trialsPerSector){
+		this.trialsPerSector = trialsPerSector;
+	}
+
+	public void setRestarts(int restarts){
+		this.restarts = Math.max(1, restarts);
+	}
+
+	/**
+	 * @param seed Seed for the random kicks, so that runs can be repeated
+	 */
+	public void setSeed(long seed){
+		this.seed = seed;
+	}
+
+	@Override
+	public List<Sector> solve() {
+		LocalSearchImprover improver = new LocalSearchImprover(distances);
+		Random random = new Random(seed);
+
+		//greedy paths from every starting node, cheapest first
+		List<Start> starts = new ArrayList<>();
+		for(TspNode root : getInitialNodes()){
+			int[] ending = ids(root.getEnding());
+			int[] path = nearestNeighborPath(ids(root.getPath()), ending);
+			if(path != null){
+				int fixedHead = useSeedsOnly || root.getPath().size() > 1 ? root.getPath().size() : 0;
+				starts.add(new Start(path, fixedHead, ending.length, improver.cost(path)));
+			}
+		}
+		if(starts.isEmpty()){
+			logger.warn("No complete path found");
+			return new ArrayList<>();
+		}
+		starts.sort(Comparator.comparingLong(start -> start.cost));
+
+		int runs = Math.min(restarts, starts.size());
+		int trials = trialsPerSector * sectors.size();
+		int[] bestPath = null;
+		long bestCost = Long.MAX_VALUE;
+		for(int run = 0; run < runs; run++){
+			Start start = starts.get(run);
+			int[] path = start.path;
+			long cost = improver.improve(path, start.fixedHead, start.fixedTail);
+			logger.info("Restart " + run + ": greedy cost " + start.cost + ", local search " + cost);
+
+			int[] candidate = new int[path.length];
+			for(int trial = 0; trial < trials; trial++){
+				System.arraycopy(path, 0, candidate, 0, path.length);
+				int[] changed = doubleBridge(candidate, start.fixedHead, path.length - start.fixedTail, random);
+				if(changed == null){
+					break;
+				}
+				long candidateCost = improver.improve(candidate, start.fixedHead, start.fixedTail, changed);
+				if(candidateCost <= cost){
+					if(candidateCost < cost){
+						logger.info("Cost " + candidateCost + " path found after " + trial + " kicks");
+					}
+					int[] swap = path;
+					path = candidate;
+					candidate = swap;
+					cost = candidateCost;
+				}
+				if(trial % 100 == 0){
+					updateProgress((int)((run * (long)trials + trial) * sectors.size() / (runs * (long)trials)));
+				}
+			}
+			if(cost < bestCost){
+				bestCost = cost;
+				bestPath = path;
+			}
+		}
+		return TspUtilities.sectorList(bestPath, distances.getSectorList());
+	}
+
+	/**
+	 * Cuts path[lo..hi) into A B C D, where B and C are short, and reorders it to A C B D.
+	 * @return Ids of the sectors whose edges changed, or null if the range is too short to kick
+	 */
+	private int[] doubleBridge(int[] path, int lo, int hi, Random random){
+		if(hi - lo < 3){
+			return null;
+		}
+		int first = lo + random.nextInt(hi - lo - 2);
+		int second = Math.min(first + 1 + random.nextInt(KICK_SEGMENT), hi - 1);
+		int third = Math.min(second + 1 + random.nextInt(KICK_SEGMENT), hi);
+		int[] changed = {path[first], path[second - 1], path[second], path[third - 1],
+				first > 0 ? path[first - 1] : path[first], third < path.length ? path[third] : path[third - 1]};
+
+		int[] b = new int[second - first];
+		System.arraycopy(path, first, b, 0, b.length);
+		System.arraycopy(path, second, path, first, third - second);
+		System.arraycopy(b, 0, path, first + third - second, b.length);
+		return changed;
+	}
+
+	/**
+	 * A greedy path and the number of sectors at each end that must stay in place.
+	 */
+	private static class Start {
+		final int[] path;
+		final int fixedHead, fixedTail;
+		final long cost;
+
+		Start(int[] path, int fixedHead, int fixedTail, long cost){
+			this.path = path;
+			this.fixedHead = fixedHead;
+			this.fixedTail = fixedTail;
+			this.cost = cost;
+		}
+	}
+}
@@ -0,0 +1,377 @@
+package com.amp.tsp.mapping;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Improves a complete path with 2-opt, Or-opt and swap moves until none of them lowers its cost.
+ * <ul>
+ * <li>2-opt reverses a segment of the path</li>
+ * <li>Or-opt moves a segment of up to {@link #OR_OPT_LENGTH} sectors elsewhere in the path</li>
+ * <li>swap exchanges two sectors</li>
+ * </ul>
+ * Every move is evaluated in O(1). Distances may be asymmetric, so the cost of a reversed segment
+ * is taken from running sums of the path's forward and backward edges. Only moves that create an
+ * edge to one of a sector's {@link #NEIGHBORS} nearest sectors are tried, and sectors are
+ * searched from a queue of "active" sectors (the complement of don't-look bits): a sector is
+ * dropped once no move around it helps, and only requeued when a move changes one of its edges.
+ * After a small change to a locally optimal path, only the sectors near the change need searching.
+ *
+ * A fixed number of sectors at the start and end of the path, such as a required seed or
+ * ending, are never moved.
+ *
+ * @author alex
+ */
+public class LocalSearchImprover {
+	/** Number of nearest sectors, in each direction, that candidate moves connect a sector to */
+	public static final int NEIGHBORS = 10;
+	/** Longest segment moved by Or-opt */
+	public static final int OR_OPT_LENGTH = 3;
+
+	private final DistanceMatrix distances;
+	private final int[][] nearestOut; //nearestOut[a] = sectors b with the smallest a -> b
+	private final int[][] nearestIn; //nearestIn[b] = sectors a with the smallest a -> b
+
+	//state of the path being improved
+	private int[] path;
+	private final int[] position; //position[id] = index of sector id in path
+	private final long[] forward; //forward[k] = cost of path[0..k]
+	private final long[] backward; //backward[k] = cost of path[0..k] travelled in reverse
+	private int lo, hi; //movable sectors are path[lo..hi)
+	private final ArrayDeque<Integer> active = new ArrayDeque<>();
+	private final boolean[] queued; //queued[id] = id is in active, all false between calls
+
+	public LocalSearchImprover(DistanceMatrix distances){
+		this.distances = distances;
+		int n = distances.size();
+		nearestOut = new int[n + 1][];
+		nearestIn = new int[n + 1][];
+		position = new int[n + 1];
+		queued = new boolean[n + 1];
+		forward = new long[n];
+		backward = new long[n];
+		for(int i = 1; i <= n; i++){
+			final int id = i;
+			nearestOut[i] = nearest(n, (a, b) -> Integer.compare(distances.get(id, a), distances.get(id, b)), id);
+			nearestIn[i] = nearest(n, (a, b) -> Integer.compare(distances.get(a, id), distances.get(b, id)), id);
+		}
+	}
+
+	private static int[] nearest(int n, Comparator<Integer> order, int self){
+		List<Integer> ids = new ArrayList<>();
+		for(int i = 1; i <= n; i++){
+			if(i != self){
+				ids.add(i);
+			}
+		}
+		ids.sort(order);
+		return ids.subList(0, Math.min(NEIGHBORS, ids.size())).stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * @param route A complete path
+	 * @param fixedHead Number of sectors at the start of the route that must stay in place
+	 * @param fixedTail Number of sectors at the end of the route that must stay in place
+	 * @return A new path that is no more expensive than route
+	 */
+	public List<Sector> improve(List<Sector> route, int fixedHead, int fixedTail){
+		int[] ids = new int[route.size()];
+		for(int i = 0; i < ids.length; i++){
+			ids[i] = distances.getId(route.get(i));
+		}
+		improve(ids, fixedHead, fixedTail);
+		List<Sector> improved = new ArrayList<>(ids.length);
+		for(int id : ids){
+			improved.add(distances.getSector(id));
+		}
+		return improved;
+	}
+
+	/**
+	 * Improves path in place.
+	 * @param path Sector ids of a complete path
+	 * @param fixedHead Number of sectors at the start of the path that must stay in place
+	 * @param fixedTail Number of sectors at the end of the path that must stay in place
+	 * @return The cost of the improved path
+	 */
+	public long improve(int[] path, int fixedHead, int fixedTail){
+		return improve(path, fixedHead, fixedTail, null);
+	}
+
+	/**
+	 * Improves path in place, starting from a path that is locally optimal except around the
+	 * given sectors.
+	 * @param path Sector ids of a complete path
+	 * @param fixedHead Number of sectors at the start of the path that must stay in place
+	 * @param fixedTail Number of sectors at the end of the path that must stay in place
+	 * @param changed Ids of the sectors whose edges changed, or null to search around every sector
+	 * @return The cost of the improved path
+	 */
+	public long improve(int[] path, int fixedHead, int fixedTail, int[] changed){
+		int n = path.length;
+		if(n - fixedHead - fixedTail < 2){
+			return cost(path);
+		}
+		this.path = path;
+		lo = fixedHead;
+		hi = n - fixedTail;
+		update();
+		if(changed == null){
+			for(int k = lo; k < hi; k++){
+				activate(k);
+			}
+		} else {
+			for(int id : changed){
+				activate(position[id]);
+			}
+		}
+		while(!active.isEmpty()){
+			int id = active.poll();
+			queued[id] = false;
+			int k = position[id];
+			if(k >= lo && k < hi && (twoOpt(k) || orOpt(k) || swap(k))){
+				update();
+				activate(position[id]);
+			}
+		}
+		this.path = null;
+		return forward[n - 1];
+	}
+
+	/**
+	 * @return Cost of path, or at least {@link DistanceMatrix#UNREACHABLE} if any step is impossible
+	 */
+	public long cost(int[] path){
+		long cost = 0;
+		for(int i = 1; i < path.length; i++){
+			cost += distances.get(path[i - 1], path[i]);
+		}
+		return cost;
+	}
+
+	/**
+	 * Applies the first improving 2-opt move that reverses a segment starting or ending at k.
+	 * @return True if the path changed
+	 */
+	private boolean twoOpt(int k){
+		//new edge path[k - 1] -> path[j]
+		if(k > 0){
+			for(int c : nearestOut[path[k - 1]]){
+				int j = position[c];
+				if(j > k && j < hi && twoOptDelta(k, j) < 0){
+					reverse(k, j);
+					return true;
+				}
+			}
+		}
+		//new edge path[k] -> path[j + 1]
+		for(int c : nearestOut[path[k]]){
+			int j = position[c] - 1;
+			if(j > k && j < hi && twoOptDelta(k, j) < 0){
+				reverse(k, j);
+				return true;
+			}
+		}
+		//new edge path[i - 1] -> path[k]
+		for(int c : nearestIn[path[k]]){
+			int i = position[c] + 1;
+			if(i >= lo && i < k && twoOptDelta(i, k) < 0){
+				reverse(i, k);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return Change in cost from reversing path[i..j]
+	 */
+	private long twoOptDelta(int i, int j){
+		return (backward[j] - backward[i]) - (forward[j] - forward[i])
+				+ d(at(i - 1), path[j]) - d(at(i - 1), path[i])
+				+ d(path[i], at(j + 1)) - d(path[j], at(j + 1));
+	}
+
+	/**
+	 * Applies the first improving Or-opt move of a segment starting or ending at k.
+	 * @return True if the path changed
+	 */
+	private boolean orOpt(int k){
+		for(int length = 1; length <= OR_OPT_LENGTH; length++){
+			if(orOpt(k, k + length - 1) || (length > 1 && orOpt(k - length + 1, k))){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Applies the first improving move of path[i..last].
+	 * @return True if the path changed
+	 */
+	private boolean orOpt(int i, int last){
+		if(i < lo || last >= hi){
+			return false;
+		}
+		long removed = d(at(i - 1), at(last + 1)) - d(at(i - 1), path[i]) - d(path[last], at(last + 1));
+		//new edge x -> path[i], inserting the segment after x
+		for(int c : nearestIn[path[i]]){
+			int x = position[c];
+			if(canInsertAfter(x, i, last) && removed + insertDelta(x, i, last) < 0){
+				move(i, last, x);
+				return true;
+			}
+		}
+		//new edge path[last] -> y, inserting the segment before y
+		for(int c : nearestOut[path[last]]){
+			int x = position[c] - 1;
+			if(canInsertAfter(x, i, last) && removed + insertDelta(x, i, last) < 0){
+				move(i, last, x);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return True if path[i..last] can be moved to just after path[x], which may be -1
+	 * 	for the start of the path
+	 */
+	private boolean canInsertAfter(int x, int i, int last){
+		return x >= lo - 1 && x < hi && (x < i - 1 || x > last);
+	}
+
+	/**
+	 * @return Change in cost from inserting path[i..last] between path[x] and path[x + 1]
+	 */
+	private long insertDelta(int x, int i, int last){
+		return d(at(x), path[i]) + d(path[last], at(x + 1)) - d(at(x), at(x + 1));
+	}
+
+	/**
+	 * Moves path[i..last] to just after path[x].
+	 */
+	private void move(int i, int last, int x){
+		activateAround(i);
+		activateAround(last);
+		activateAround(x);
+		activate(x + 1);
+		int length = last - i + 1;
+		int[] segment = new int[length];
+		System.arraycopy(path, i, segment, 0, length);
+		if(x > last){
+			System.arraycopy(path, last + 1, path, i, x - last);
+			System.arraycopy(segment, 0, path, x - length + 1, length);
+		} else {
+			System.arraycopy(path, x + 1, path, x + 1 + length, i - x - 1);
+			System.arraycopy(segment, 0, path, x + 1, length);
+		}
+	}
+
+	/**
+	 * Applies the first improving swap of the sector at k.
+	 * @return True if the path changed
+	 */
+	private boolean swap(int k){
+		//new edge path[k - 1] -> path[j]
+		if(k > 0){
+			for(int c : nearestOut[path[k - 1]]){
+				int j = position[c];
+				if(j > k && j < hi && swapDelta(k, j) < 0){
+					exchange(k, j);
+					return true;
+				}
+			}
+		}
+		//new edge path[i - 1] -> path[k]
+		for(int c : nearestIn[path[k]]){
+			int i = position[c] + 1;
+			if(i >= lo && i < k && swapDelta(i, k) < 0){
+				exchange(i, k);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return Change in cost from exchanging path[i] and path[j], where i &lt; j
+	 */
+	private long swapDelta(int i, int j){
+		int a = path[i], b = path[j];
+		if(j == i + 1){
+			return d(at(i - 1), b) + d(b, a) + d(a, at(j + 1))
+					- d(at(i - 1), a) - d(a, b) - d(b, at(j + 1));
+		}
+		return d(at(i - 1), b) + d(b, path[i + 1]) + d(path[j - 1], a) + d(a, at(j + 1))
+				- d(at(i - 1), a) - d(a, path[i + 1]) - d(path[j - 1], b) - d(b, at(j + 1));
+	}
+
+	private void exchange(int i, int j){
+		activateAround(i);
+		activateAround(j);
+		swap(i, j);
+	}
+
+	private void reverse(int i, int j){
+		activateAround(i);
+		activateAround(j);
+		for(; i < j; i++, j--){
+			swap(i, j);
+		}
+	}
+
+	private void swap(int i, int j){
+		int swap = path[i];
+		path[i] = path[j];
+		path[j] = swap;
+	}
+
+	/**
+	 * Queues the sectors on both sides of the edges into and out of path[k], which are about to change.
+	 */
+	private void activateAround(int k){
+		activate(k - 1);
+		activate(k);
+		activate(k + 1);
+	}
+
+	/**
+	 * Queues the sector at index k, if it is movable and not already queued.
+	 */
+	private void activate(int k){
+		if(k >= lo && k < hi && !queued[path[k]]){
+			queued[path[k]] = true;
+			active.add(path[k]);
+		}
+	}
+
+	/**
+	 * Recomputes positions and running sums after a move.
+	 */
+	private void update(){
+		for(int k = 0; k < path.length; k++){
+			position[path[k]] = k;
+			if(k > 0){
+				forward[k] = forward[k - 1] + distances.get(path[k - 1], path[k]);
+				backward[k] = backward[k - 1] + distances.get(path[k], path[k - 1]);
+			}
+		}
+	}
+
+	/**
+	 * @return The sector id at index k of the path, or 0 past either end
+	 */
+	private int at(int k){
+		return k < 0 || k >= path.length ? 0 : path[k];
+	}
+
+	/**
+	 * @return Distance from a to b, or 0 if either is 0 (past the end of the path)
+	 */
+	private long d(int a, int b){
+		return a == 0 || b == 0 ? 0 : distances.get(a, b);
+	}
+}
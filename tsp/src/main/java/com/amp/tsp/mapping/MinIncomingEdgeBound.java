@@ -0,0 +1,61 @@
+package com.amp.tsp.mapping;
+
+/**
+ * Default bound: the cost of the path so far plus, for each unvisited sector, the cheapest
+ * edge into it from another unvisited sector or from the last sector of the path.
+ * 
+ * Every child of a node appends one of the unvisited sectors, which leaves exactly the same
+ * set of possible sources for the sectors it still has to visit, so the cheapest incoming
+ * edges only need to be calculated once per expanded node, and each child's bound follows
+ * from them in constant time.
+ * 
+ * @author alex
+ */
+public class MinIncomingEdgeBound implements BoundStrategy {
+
+	private final DistanceMatrix distances;
+	private final int numSectors;
+	private final int[] unvisited;
+	private final int[] cheapestIncoming;
+
+	private long incomingSum;
+	private int last;
+	private int length;
+	private int prefixCost;
+
+	public MinIncomingEdgeBound(DistanceMatrix distances){
+		this.distances = distances;
+		this.numSectors = distances.size();
+		this.unvisited = new int[numSectors];
+		this.cheapestIncoming = new int[numSectors + 1];
+	}
+
+	@Override
+	public void expand(long[] visited, int last, int length, int prefixCost) {
+		this.last = last;
+		this.length = length;
+		this.prefixCost = prefixCost;
+
+		int count = SectorMask.unvisited(visited, numSectors, unvisited);
+		incomingSum = 0;
+		for(int a = 0; a < count; a++){
+			int i = unvisited[a];
+			int lowest = DistanceMatrix.UNREACHABLE;
+			for(int b = 0; b < count; b++){
+				if(a == b) continue;
+				lowest = Math.min(distances.get(unvisited[b], i), lowest);
+			}
+			cheapestIncoming[i] = lowest;
+			incomingSum += lowest;
+		}
+	}
+
+	@Override
+	public int childBound(int child) {
+		long bound = (long)prefixCost + distances.get(last, child);
+		if(length + 1 < numSectors){
+			bound += incomingSum - cheapestIncoming[child];
+		}
+		return (int)Math.min(bound, Integer.MAX_VALUE);
+	}
+}
@@ -1,7 +1,6 @@
 package com.amp.tsp.mapping;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -11,22 +10,28 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
 import com.amp.tsp.mapping.TspSolution.TspBuilder;
 
 public class MultiOptimizedNearestNeighborTspSolver extends OptimizedTspSolver {
 
-	private final TspSolver theSolver = this; //for synchronization
-
 	AtomicInteger bestBoundPathLength;
-	AtomicInteger bound;
-	AtomicReference<byte[]> bestPath;
+	AtomicReference<Incumbent> best;
+	AtomicInteger busy; //workers that have not found the queue empty since their last node
 	Queue<TspNode2> queue;
+	LongAdder expanded;
+	AtomicBoolean firstFound;
+	long start;
+
+	private int numThreads = Runtime.getRuntime().availableProcessors() * 2;
+	private boolean relaxedQueue = true;
 	
-	private Map<Byte, byte[]> nearestNeighbors;
+	private int[][] nearestNeighbors; //nearestNeighbors[id] = every other sector, nearest first
 	private int nNearest;
 	
 	/**
@@ -42,26 +47,23 @@ public class MultiOptimizedNearestNeighborTspSolver extends OptimizedTspSolver {
 	}
 	
 	private void orderNeighbors(){
-		nearestNeighbors = new HashMap<>();
-		sectors.stream().forEach(s -> {
-			
-			List<Sector> sectorList = sectors.stream()
-				.filter(s1 -> !s1.equals(s))
-				.filter(s1 -> shortestPaths.get(s).containsKey(s1))
-				.sorted((s1, s2) -> shortestPaths.get(s).get(s1).compareTo(shortestPaths.get(s).get(s2)))
-				.collect(Collectors.toList());
-			
-			nearestNeighbors.put(sectorMap.get(s), sectorListToByteArray(sectorList));
-		});
+		nearestNeighbors = new int[numSectors + 1][];
+		for(int s = 1; s <= numSectors; s++){
+			nearestNeighbors[s] = orderNeighbors(distances, s);
+		}
 	}
 	
-	private byte[] sectorListToByteArray(List<Sector> sectors){
-		byte[] array = new byte[sectors.size()];
-		int i = 0;
-		for(Sector s : sectors){
-			array[i++] = sectorMap.get(s);
-		}
-		return array;
+	/**
+	 * @return Ids of every other sector reachable from <code>from</code>, nearest first
+	 */
+	static int[] orderNeighbors(DistanceMatrix distances, int from){
+		return IntStream.rangeClosed(1, distances.size())
+			.filter(s1 -> s1 != from)
+			.filter(s1 -> distances.isReachable(from, s1))
+			.boxed()
+			.sorted((s1, s2) -> Integer.compare(distances.get(from, s1), distances.get(from, s2)))
+			.mapToInt(Integer::intValue)
+			.toArray();
 	}
 	
 	
@@ -69,6 +71,22 @@ public class MultiOptimizedNearestNeighborTspSolver extends OptimizedTspSolver {
 		this.nNearest = n;
 	}	
 
+	/**
+	 * @param numThreads Number of worker threads used by subsequent calls to solve().
+	 * 	Defaults to twice the number of available processors.
+	 */
+	public void setNumThreads(int numThreads){
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * @param relaxedQueue True (the default) to share work through a {@link MultiQueue}, false
+	 * 	to use a single PriorityBlockingQueue that always returns the lowest bound
+	 */
+	public void setRelaxedQueue(boolean relaxedQueue){
+		this.relaxedQueue = relaxedQueue;
+	}
+
 	/**
 	 * Calculate shortest route using a single-threaded branch and bound
 	 * algorithm.
@@ -87,16 +105,20 @@ public class MultiOptimizedNearestNeighborTspSolver extends OptimizedTspSolver {
 			nNearest = sectors.size();
 		}
 		
-		int numThreads = Runtime.getRuntime().availableProcessors() * 2;
-
-		queue = new PriorityBlockingQueue<>(TspNode2.queueFrom(getInitialNodes(), sectorMap));
-		bestPath = new AtomicReference<>();
-		bound = new AtomicInteger(Integer.MAX_VALUE);
+		Queue<TspNode2> initialNodes = TspNode2.queueFrom(getInitialNodes(), sectorMap, distances);
+		long heapBudget = getMemoryBudget() / (numThreads * MultiQueue.HEAPS_PER_THREAD);
+		queue = relaxedQueue ? new MultiQueue<>(initialNodes, numThreads, () -> newFrontier(heapBudget)) : new PriorityBlockingQueue<>(initialNodes);
+		best = new AtomicReference<>(warmStart(initialNodes));
+		busy = new AtomicInteger(numThreads);
 		bestBoundPathLength = new AtomicInteger(0);
+		expanded = new LongAdder();
+		firstFound = new AtomicBoolean();
+		start = System.nanoTime();
 
 		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		TspCalculatorInt tspCalc = null;
 		for (int i = 0; i < numThreads; i++) {
-			TspCalculatorInt tspCalc = new TspCalculatorInt();
+			tspCalc = new TspCalculatorInt();
 			executor.execute(tspCalc);
 		}
 
@@ -107,14 +129,31 @@ public class MultiOptimizedNearestNeighborTspSolver extends OptimizedTspSolver {
 		} catch (InterruptedException e) {
 			logger.warn("Threads prematurely interrupted; program may not have finished.");
 		}
+		queue.clear(); //also removes any nodes spilled to disk
+		logExpanded(expanded.sum(), tspCalc.boundStrategy);
 
-		if (bestPath.get() == null) {
+		if (best.get().getPath() == null) {
 			 logger.warn("No complete path found, longest Path not saved");
 			 return new ArrayList<>();
 		} else {
 			logger.info("Processing finished, returning best path.");
-			return TspUtilities.sectorList(bestPath.get(), sectorList);
+			return TspUtilities.sectorList(best.get().getPath(), sectorList);
+		}
+	}
+	
+	/**
+	 * Saves path as the incumbent if it is cheaper, and drops queued nodes that can no longer beat it.
+	 * @return True if the path was saved
+	 */
+	private boolean offer(int cost, int[] path){
+		if(!Incumbent.offer(best, cost, path)){
+			return false;
 		}
+		if(firstFound.compareAndSet(false, true)){
+			logFirstSolution(start, expanded.sum(), cost);
+		}
+		queue.removeIf(node -> node.getBound() > cost);
+		return true;
 	}
 	
 	public class TspCalculatorInt implements Runnable {
@@ -122,109 +161,147 @@ public class MultiOptimizedNearestNeighborTspSolver extends OptimizedTspSolver {
 		//bounds optimization variables, local copies
 		private final Sector[] sectorList;
 		private final Map<Sector, Integer> sectorMap;
-		private final boolean[] usedSectors; 
-		private final boolean[] usedSectorsSwap; 
+		private final BoundStrategy boundStrategy;
 		private final int numSectors;
+		private final int diveInterval;
+		private int longest; //longest path with queued children, published to bestBoundPathLength
 
 		public TspCalculatorInt() {
 			//make thread-local copies of these
 			sectorList = new Sector[sectors.size() + 1];
 			sectorMap = new HashMap<>();
-			usedSectors = new boolean[sectors.size() +1];
-			usedSectorsSwap = new boolean[sectors.size() +1];
+			boundStrategy = newBoundStrategy();
 			int i = 1;
 			for(Sector s : sectors){
 				sectorMap.put(s, i);
 				sectorList[i++] = s;
 			}
 			numSectors = sectors.size();
+			diveInterval = getDiveInterval();
 		}
 
-		@Override
-		public void run() {
-			int count = 0;
+		/**
+		 * Checks curr against the incumbent and queues its nearest children.
+		 * @return False if the search is finished
+		 */
+		private boolean process(TspNode2 curr, int count){
+			if(count % 100000 == 0){
+				//save time by not tracking best path before it's complete, use curr path instead
+				logState(queue.size(), curr.getBound(), best.get().getPath(), curr.getPath());
+			}
 			
-			while(!queue.isEmpty()){
-				TspNode2 curr = queue.poll();
-				
-				if(count++ % 100000 == 0){
-					//save time by not tracking best path before it's complete, use curr path instead
-					logState(queue.size(), curr.getBound(), bestPath.get(), curr.getPath());
+			//a strictly ordered queue has nothing left that can beat the incumbent, but a
+			//relaxed one may still hold better nodes
+			if(curr.getBound() > best.get().getCost()){
+				if(relaxedQueue){
+					return true;
 				}
-				
-				//this part is pretty cheap and cannot be interleaved with other threads, so just synchronize it all
-				synchronized(theSolver){
-					//we're not going to have anything better than our current at this point, so return 
-					if(curr.getBound() > bound.get()){
-						logger.info("Searched all bounds less than " + bound + ", exiting");
-						return;
-					}
-					
-					//if the current path covers all sectors, it's a full path, so set it as our new best
-					if(curr.getLength() == numSectors) {
-						if(curr.getBound() < bound.get()){
-							logger.info("Cost " + curr.getBound() + " path found, saving");
-							logger.info(TspUtilities.routeString(TspUtilities.sectorList(curr.getPath(), sectorList)));
-							bestPath.set(curr.getPath());
-							bound.set(curr.getBound());
-						}
-						continue;
-					}
+				logger.info("Searched all bounds less than " + best.get().getCost() + ", exiting");
+				return false;
+			}
+			
+			boolean diving = diveInterval > 0 && count % diveInterval == 0;
+			while(curr != null && curr.getBound() <= best.get().getCost()){
+				curr = expand(curr, diving);
+			}
+			return true;
+		}
+		
+		/**
+		 * Saves curr if it is a full path, otherwise queues its nearest children.
+		 * @param diving True to return the cheapest child rather than queueing it
+		 * @return The cheapest child if diving, otherwise null
+		 */
+		private TspNode2 expand(TspNode2 curr, boolean diving){
+			//if the current path covers all sectors, it's a full path, so set it as our new best
+			if(curr.getLength() == numSectors) {
+				if(offer(curr.getBound(), curr.getPath())){
+					logger.info("Cost " + curr.getBound() + " path found, saving");
+					logger.info(TspUtilities.routeString(TspUtilities.sectorList(curr.getPath(), sectorList)));
 				}
+				return null;
+			}
 
-				//mark currently used sectors
-				Arrays.fill(usedSectors, false);
-				for(byte i = 0; i < curr.getLength(); i++){
-					usedSectors[curr.getPath()[i]] = true;
+			//handle case in which an ending is specified
+			if(curr.getEnding() != null){
+				
+				//full path, check if it's good
+				if(curr.getLength() + curr.getEnding().length == numSectors){
+					int[] fullPath = curr.completedPath();
+					int currBound = getBoundForPath(fullPath);
+					if(offer(currBound, fullPath)){
+						logger.info("Full path (" + currBound + ") " + TspUtilities.routeString(fullPath, sectorList));
+					}
+					return null;
 				}
+			}
+			
+			int[] nearest = nearestNeighbors[curr.getLast()];
+			int cnt = 0;
 
-				//handle case in which an ending is specified
-				if(curr.getEnding() != null){
-					
-					//always mark ending sectors as used even if not a complete path
-					for(int s : curr.getEnding()){
-						usedSectors[s] = true;
-					}
-					
-					//full path, check if it's good
-					if(curr.getLength() + curr.getEnding().length == numSectors){
-						for(byte s : curr.getEnding()){
-							curr.addNode(s);
+			//Add all next steps to queue (which will sort them by bound), except
+			//the cheapest when diving, which is expanded next instead
+			boundStrategy.expand(curr.getVisited(), curr.getLast(), curr.getLength(), curr.getPrefixCost());
+			expanded.increment();
+			TspNode2 cheapest = null;
+			for(int i : nearest){
+				if(!curr.isUnavailable(i)){
+					int newBound = boundStrategy.childBound(i);
+					if(newBound <= best.get().getCost()){
+						TspNode2 child = curr.child(i, newBound, getChildPrefixCost(curr, i));
+						if(diving && (cheapest == null || child.compareTo(cheapest) < 0)){
+							TspNode2 swap = cheapest;
+							cheapest = child;
+							child = swap;
+						}
+						if(child != null){
+							queue.add(child);
 						}
-						synchronized(theSolver){
-							int currBound = getBoundForPath(curr.getPath(), usedSectorsSwap);
-							if(currBound < bound.get()){
-								logger.info("Full path (" + currBound + ") " + TspUtilities.routeString(curr.getPath(), sectorList));
-								bestPath.set(curr.getPath());
-								bound.set(currBound);
+						if (progressFrame != null && curr.getLength() > longest) {
+							longest = curr.getLength();
+							if (bestBoundPathLength.getAndAccumulate(longest, Math::max) < longest) {
+								progressFrame.setProgress(longest + 1);
 							}
 						}
-						continue;
 					}
+					if (++cnt == nNearest){
+						break;
+					}						
 				}
-				
-				byte[] currPath = curr.getPath();
-				byte[] nearest = nearestNeighbors.get(currPath[curr.getLength()-1]);
-				int cnt = 0;
-
-				//Add all next steps to queue (which will sort them by bound)
-				for(byte i : nearest){
-					if(!usedSectors[i]){
-						byte[] newPath = Arrays.copyOf(curr.getPath(), numSectors);
-						newPath[curr.getLength()] = i;
-						int newBound = getBoundForPath(newPath, usedSectorsSwap);
-						if(newBound <= bound.get()){
-							queue.add(new TspNode2(newBound, newPath, curr.getEnding(), curr.getLength() + 1));
-							if (progressFrame != null && curr.getLength() > bestBoundPathLength.get()) {
-								bestBoundPathLength.set(curr.getLength());
-								progressFrame.setProgress(curr.getLength()+1);
-							}
-						}
-						if (++cnt == nNearest){
+			}
+			return cheapest;
+		}
+
+		@Override
+		public void run() {
+			int count = 0;
+			
+			//only an idle worker touches busy, so polling and expanding share nothing
+			boolean idle = false;
+			try {
+				while(true){
+					if(idle){
+						busy.incrementAndGet();
+						idle = false;
+					}
+					TspNode2 curr = queue.poll();
+					if(curr == null){
+						//the queue only stays empty once no other thread can add to it
+						idle = true;
+						if(busy.decrementAndGet() == 0 && queue.isEmpty()){
 							break;
-						}						
+						}
+						Thread.yield();
+						continue;
+					}
+					if(!process(curr, count++)){
+						break;
 					}
 				}
+			} finally {
+				if(!idle){
+					busy.decrementAndGet();
+				}
 			}
 			
 			System.gc();
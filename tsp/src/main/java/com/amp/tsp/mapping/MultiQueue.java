@@ -0,0 +1,203 @@
+package com.amp.tsp.mapping;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Relaxed concurrent priority queue made of several single-threaded heaps, each with its own lock.
+ * Elements are added to a random heap, and poll takes the smaller head of two random heaps,
+ * so threads rarely wait on each other while the polled elements stay close to best-first
+ * order. Unlike a PriorityBlockingQueue, poll is not guaranteed to return the smallest
+ * element, only one of the smallest.
+ *
+ * poll only returns null after finding every heap empty.
+ *
+ * @author alex
+ */
+class MultiQueue<E extends Comparable<? super E>> extends AbstractQueue<E> {
+	/** Number of heaps per thread; more heaps means less contention but looser ordering */
+	public static final int HEAPS_PER_THREAD = 2;
+
+	private final Heap<E>[] heaps;
+	private final AtomicInteger size = new AtomicInteger();
+
+	public MultiQueue(int numThreads){
+		this(numThreads, PriorityQueue::new);
+	}
+
+	/**
+	 * @param heapFactory Creates the single-threaded queue used as each heap
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public MultiQueue(int numThreads, Supplier<? extends Queue<E>> heapFactory){
+		heaps = new Heap[Math.max(2, numThreads * HEAPS_PER_THREAD)];
+		for(int i = 0; i < heaps.length; i++){
+			heaps[i] = new Heap<>(heapFactory.get());
+		}
+	}
+
+	public MultiQueue(Collection<? extends E> initial, int numThreads, Supplier<? extends Queue<E>> heapFactory){
+		this(numThreads, heapFactory);
+		addAll(initial);
+	}
+
+	@Override
+	public boolean offer(E e) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		while(true){
+			Heap<E> heap = heaps[random.nextInt(heaps.length)];
+			if(heap.lock.tryLock()){
+				try {
+					heap.elements.add(e);
+					heap.head = heap.elements.peek();
+				} finally {
+					heap.lock.unlock();
+				}
+				size.incrementAndGet();
+				return true;
+			}
+		}
+	}
+
+	@Override
+	public E poll() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for(int attempt = 0; attempt < heaps.length; attempt++){
+			Heap<E> first = heaps[random.nextInt(heaps.length)];
+			Heap<E> second = heaps[random.nextInt(heaps.length)];
+			E firstHead = first.head, secondHead = second.head;
+			if(firstHead == null && secondHead == null){
+				continue;
+			}
+			Heap<E> heap = secondHead == null || (firstHead != null && firstHead.compareTo(secondHead) <= 0) ? first : second;
+			if(heap.lock.tryLock()){
+				E e = pollLocked(heap);
+				if(e != null){
+					return e;
+				}
+			}
+		}
+
+		//mostly empty, check every heap before giving up
+		for(Heap<E> heap : heaps){
+			if(heap.head != null){
+				heap.lock.lock();
+				E e = pollLocked(heap);
+				if(e != null){
+					return e;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Polls a heap whose lock is held by the current thread, and releases the lock.
+	 */
+	private E pollLocked(Heap<E> heap){
+		E e;
+		try {
+			e = heap.elements.poll();
+			heap.head = heap.elements.peek();
+		} finally {
+			heap.lock.unlock();
+		}
+		if(e != null){
+			size.decrementAndGet();
+		}
+		return e;
+	}
+
+	/**
+	 * @return The smallest head among the heaps at the time each was looked at
+	 */
+	@Override
+	public E peek() {
+		E best = null;
+		for(Heap<E> heap : heaps){
+			E head = heap.head;
+			if(head != null && (best == null || head.compareTo(best) < 0)){
+				best = head;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Removes matching elements from each heap in turn, holding only that heap's lock.
+	 */
+	@Override
+	public boolean removeIf(Predicate<? super E> filter) {
+		boolean removed = false;
+		for(Heap<E> heap : heaps){
+			heap.lock.lock();
+			try {
+				int before = heap.elements.size();
+				if(heap.elements.removeIf(filter)){
+					removed = true;
+					size.addAndGet(heap.elements.size() - before);
+					heap.head = heap.elements.peek();
+				}
+			} finally {
+				heap.lock.unlock();
+			}
+		}
+		return removed;
+	}
+
+	@Override
+	public void clear() {
+		for(Heap<E> heap : heaps){
+			heap.lock.lock();
+			try {
+				size.addAndGet(-heap.elements.size());
+				heap.elements.clear();
+				heap.head = null;
+			} finally {
+				heap.lock.unlock();
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * @return Iterator over a snapshot of the elements, in no particular order
+	 */
+	@Override
+	public Iterator<E> iterator() {
+		List<E> snapshot = new ArrayList<>();
+		for(Heap<E> heap : heaps){
+			heap.lock.lock();
+			try {
+				snapshot.addAll(heap.elements);
+			} finally {
+				heap.lock.unlock();
+			}
+		}
+		return snapshot.iterator();
+	}
+
+	private static class Heap<E> {
+		final ReentrantLock lock = new ReentrantLock();
+		final Queue<E> elements;
+		volatile E head; //smallest element, readable without the lock
+
+		Heap(Queue<E> elements){
+			this.elements = elements;
+		}
+	}
+}
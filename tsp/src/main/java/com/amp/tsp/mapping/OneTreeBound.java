@@ -0,0 +1,286 @@
+package com.amp.tsp.mapping;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * Held-Karp style Lagrangian bound built on minimum spanning trees. The rest of a path from
+ * the last sector through the unvisited sectors is a spanning tree of those sectors in which
+ * every sector has degree 2 apart from the two ends, so with a penalty pi[v] added to every
+ * edge touching v:
+ * <pre>
+ * cost(path) &gt;= MST_pi - 2 * sum(pi) + pi[first] + pi[end]
+ * </pre>
+ * for any choice of penalties. Edges are weighted min(d(u,v), d(v,u)), which keeps the bound
+ * valid on asymmetric maps but makes it tightest on symmetric ones.
+ *
+ * Good penalties are found with subgradient optimization over the whole map when the bound is
+ * created, or once per map for all the bounds made by {@link #factory()}. Each expanded node
+ * starts from those root penalties and runs a few more iterations over its own unvisited
+ * sectors. Every child of the node starts its remaining path at the
+ * child and then visits the same set of sectors, so one spanning tree per expanded node gives
+ * every child's bound in constant time.
+ *
+ * @author alex
+ */
+public class OneTreeBound implements BoundStrategy {
+	/** Subgradient iterations run over the whole map, once for each root */
+	public static final int ROOT_ITERATIONS = 300;
+	/** Subgradient iterations run for each expanded node, starting from the root penalties */
+	public static final int NODE_ITERATIONS = 2;
+
+	//weight of an edge between sectors that cannot reach each other in either direction
+	private static final long FORBIDDEN = 1L << 40;
+
+	private final DistanceMatrix distances;
+	private final int numSectors;
+	private final int stride;
+	private final long[] weights; //shared with the root
+	private final double[] rootPenalties; //by id, shared with the root
+	private final double rootStep;
+
+	//scratch space, indexed by position in unvisited
+	private final int[] unvisited;
+	private final double[] penalties;
+	private final double[] bestPenalties;
+	private final int[] degree;
+	private final double[] key;
+	private final int[] parent;
+	private final boolean[] inTree;
+	private final int[] position; //id -> position in unvisited
+
+	private int count;
+	private int last;
+	private int length;
+	private int prefixCost;
+
+	//results of the best iteration for the current node
+	private double treeMinusPenalties; //MST_pi - 2 * sum(pi)
+	private int lowestPosition;
+	private int secondLowestPosition;
+	private double lowestPenalty;
+	private double secondLowestPenalty;
+
+	/**
+	 * Creates a bound with its own root penalties. Use {@link #factory()} to share them between
+	 * the bounds of a multi-threaded solver.
+	 */
+	public OneTreeBound(DistanceMatrix distances){
+		this(new Root(distances));
+	}
+
+	private OneTreeBound(Root root){
+		this(root.distances, root.weights, root.penalties, root.step);
+	}
+
+	private OneTreeBound(DistanceMatrix distances, long[] weights, double[] rootPenalties, double rootStep){
+		this.distances = distances;
+		this.numSectors = distances.size();
+		this.stride = numSectors + 1;
+		this.weights = weights;
+		this.rootPenalties = rootPenalties;
+		this.rootStep = rootStep;
+
+		this.unvisited = new int[numSectors];
+		this.penalties = new double[numSectors];
+		this.bestPenalties = new double[numSectors];
+		this.degree = new int[numSectors];
+		this.key = new double[numSectors];
+		this.parent = new int[numSectors];
+		this.inTree = new boolean[numSectors];
+		this.position = new int[numSectors + 1];
+	}
+
+	/**
+	 * @return A bound strategy for {@link OptimizedTspSolver#setBoundStrategy} that runs the root
+	 * 	optimization once per map, and gives each bound it creates only its own scratch space.
+	 * 	Only the root of the last map is kept, since a solver only ever solves one map.
+	 */
+	public static Function<DistanceMatrix, BoundStrategy> factory(){
+		Root[] last = new Root[1];
+		return distances -> {
+			Root root;
+			synchronized(last){
+				if(last[0] == null || last[0].distances != distances){
+					last[0] = new Root(distances);
+				}
+				root = last[0];
+			}
+			return new OneTreeBound(root);
+		};
+	}
+
+	/**
+	 * Edge weights and penalties for the whole map, shared read-only by every bound on it.
+	 */
+	private static class Root {
+		final DistanceMatrix distances;
+		final long[] weights; //symmetric edge weights, by id
+		final double[] penalties; //by id
+		final double step;
+
+		Root(DistanceMatrix distances){
+			this.distances = distances;
+			int numSectors = distances.size();
+			int stride = numSectors + 1;
+			weights = new long[stride * stride];
+			for(int i = 1; i <= numSectors; i++){
+				for(int j = 1; j <= numSectors; j++){
+					if(i != j){
+						long weight = Math.min(distances.get(i, j), distances.get(j, i));
+						weights[i * stride + j] = weight == DistanceMatrix.UNREACHABLE ? FORBIDDEN : weight;
+					}
+				}
+			}
+
+			OneTreeBound bound = new OneTreeBound(distances, weights, null, 0);
+			bound.count = SectorMask.unvisited(SectorMask.create(numSectors), numSectors, bound.unvisited);
+			step = bound.optimize(bound.initialStep(), ROOT_ITERATIONS);
+			penalties = new double[stride];
+			for(int a = 0; a < bound.count; a++){
+				penalties[bound.unvisited[a]] = bound.bestPenalties[a];
+			}
+		}
+	}
+
+	@Override
+	public void expand(long[] visited, int last, int length, int prefixCost) {
+		this.last = last;
+		this.length = length;
+		this.prefixCost = prefixCost;
+		this.count = SectorMask.unvisited(visited, numSectors, unvisited);
+		for(int a = 0; a < count; a++){
+			penalties[a] = rootPenalties[unvisited[a]];
+			position[unvisited[a]] = a;
+		}
+		optimize(rootStep, NODE_ITERATIONS);
+	}
+
+	@Override
+	public int childBound(int child) {
+		long bound = (long)prefixCost + distances.get(last, child);
+		if(length + 1 < numSectors){
+			int a = position[child];
+			double end = a == lowestPosition ? secondLowestPenalty : lowestPenalty;
+			double rest = treeMinusPenalties + bestPenalties[a] + end;
+			bound += (long)Math.ceil(rest - 1e-6);
+		}
+		return (int)Math.min(bound, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Subgradient optimization of the penalties for the sectors in unvisited, starting from
+	 * penalties. Leaves the best penalties found in bestPenalties and the matching spanning
+	 * tree results in the fields above.
+	 * @return Step size to continue from
+	 */
+	private double optimize(double step, int iterations){
+		double best = Double.NEGATIVE_INFINITY;
+		for(int k = 0; k <= iterations; k++){
+			double value = spanningTree();
+			findLowestPenalties();
+			double total = value + lowestPenalty + secondLowestPenalty;
+			if(total > best){
+				best = total;
+				treeMinusPenalties = value;
+				System.arraycopy(penalties, 0, bestPenalties, 0, count);
+			} else {
+				step /= 2;
+			}
+			if(k == iterations){
+				break;
+			}
+
+			//move each penalty towards making its sector's degree match a path's
+			boolean isPath = true;
+			for(int a = 0; a < count; a++){
+				int target = (a == lowestPosition || a == secondLowestPosition) ? 1 : 2;
+				int gradient = degree[a] - target;
+				isPath &= gradient == 0;
+				penalties[a] += step * gradient;
+			}
+			if(isPath){
+				break; //the tree is a path, so the bound is exact
+			}
+		}
+
+		//recalculate the lowest penalties for the penalties actually kept
+		System.arraycopy(bestPenalties, 0, penalties, 0, count);
+		findLowestPenalties();
+		return step;
+	}
+
+	private void findLowestPenalties(){
+		lowestPosition = -1;
+		secondLowestPosition = -1;
+		lowestPenalty = Double.POSITIVE_INFINITY;
+		secondLowestPenalty = Double.POSITIVE_INFINITY;
+		for(int a = 0; a < count; a++){
+			if(penalties[a] < lowestPenalty){
+				secondLowestPenalty = lowestPenalty;
+				secondLowestPosition = lowestPosition;
+				lowestPenalty = penalties[a];
+				lowestPosition = a;
+			} else if(penalties[a] < secondLowestPenalty){
+				secondLowestPenalty = penalties[a];
+				secondLowestPosition = a;
+			}
+		}
+		if(count < 2){
+			secondLowestPenalty = 0;
+		}
+	}
+
+	/**
+	 * Prim's algorithm over the unvisited sectors with penalized weights. Fills in degree.
+	 * @return Weight of the tree minus twice the sum of the penalties
+	 */
+	private double spanningTree(){
+		double total = 0;
+		for(int a = 0; a < count; a++){
+			key[a] = Double.POSITIVE_INFINITY;
+			inTree[a] = false;
+			degree[a] = 0;
+			total -= 2 * penalties[a];
+		}
+		if(count == 0){
+			return 0;
+		}
+		key[0] = 0;
+		parent[0] = -1;
+		for(int added = 0; added < count; added++){
+			int next = -1;
+			for(int a = 0; a < count; a++){
+				if(!inTree[a] && (next < 0 || key[a] < key[next])){
+					next = a;
+				}
+			}
+			inTree[next] = true;
+			total += key[next];
+			if(parent[next] >= 0){
+				degree[next]++;
+				degree[parent[next]]++;
+			}
+			int from = unvisited[next];
+			for(int a = 0; a < count; a++){
+				if(!inTree[a]){
+					double weight = weights[from * stride + unvisited[a]] + penalties[next] + penalties[a];
+					if(weight < key[a]){
+						key[a] = weight;
+						parent[a] = next;
+					}
+				}
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * @return Starting step size, a fraction of the average edge in an unpenalized tree
+	 */
+	private double initialStep(){
+		Arrays.fill(penalties, 0);
+		double tree = spanningTree();
+		return count < 2 ? 0 : 0.3 * Math.min(tree, FORBIDDEN) / (count - 1);
+	}
+}
@@ -1,6 +1,5 @@
 package com.amp.tsp.mapping;
 
-import java.util.Arrays;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.PriorityBlockingQueue;
@@ -23,33 +22,25 @@ public class OptimizedLambdaSolver extends OptimizedTspSolver {
 
 	@Override
 	public List<Sector> solve() {
-//		final boolean[] usedSectors = new boolean[numSectors+1];
-		final Queue<TspNode2> queue = new PriorityBlockingQueue<>(TspNode2.queueFrom(getInitialNodes(), sectorMap));
+		final Queue<TspNode2> queue = new PriorityBlockingQueue<>(TspNode2.queueFrom(getInitialNodes(), sectorMap, distances));
 		
 		//start with max bound and no best path
 		AtomicInteger bound = new AtomicInteger(Integer.MAX_VALUE);
-		AtomicReference<byte[]> bestPath = new AtomicReference<byte[]>();
-		
+		AtomicReference<int[]> bestPath = new AtomicReference<int[]>();
 		
+		ThreadLocal<BoundStrategy> boundStrategy = ThreadLocal.withInitial(this::newBoundStrategy);
 		
 		Consumer<TspNode2> nodeConsumer = node -> {
 			if(node.getLength() == numSectors) {
 				bestPath.set(node.getPath());
 				bound.set(node.getBound());
 			} else {
-				boolean[] usedSectors = new boolean[numSectors+1];
-				Arrays.fill(usedSectors, false);
-				for(byte i = 0; i < node.getLength(); i++){
-					usedSectors[node.getPath()[i]] = true;
-				}				
+				BoundStrategy strategy = boundStrategy.get();
+				strategy.expand(node.getVisited(), node.getLast(), node.getLength(), node.getPrefixCost());
 				IntStream.rangeClosed(1, numSectors)
-					.filter(i -> !usedSectors[i])
+					.filter(i -> !SectorMask.contains(node.getVisited(), i))
 					.boxed()
-					.map(i -> {
-						byte[] newPath = Arrays.copyOf(node.getPath(), numSectors);
-						newPath[node.getLength()] = i.byteValue();
-						return new TspNode2(getBoundForPath(newPath, usedSectors), newPath, node.getEnding(), node.getLength() + 1);
-					})
+					.map(i -> node.child(i, strategy.childBound(i), getChildPrefixCost(node, i)))
 					.filter(newNode -> newNode.getBound() <= bound.get())
 					.forEach(queue::add);
 			}
@@ -1,66 +1,73 @@
 package com.amp.tsp.mapping;
 
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 import com.amp.tsp.mapping.TspSolution.TspBuilder;
 
 /**
  * This solver uses a version of getBoundForPath that operates on
- * a byte[] instead of a List<Sector> for performance.
+ * an int[] of sector ids instead of a List<Sector> for performance.
  * @author alex
  */
 public abstract class OptimizedTspSolver extends TspSolver {
+	/** Default number of nodes polled between depth-first dives */
+	public static final int DEFAULT_DIVE_INTERVAL = 100;
+	
 	//bounds optimization variables
 	protected final Sector[] sectorList;
-	protected final Map<Sector, Byte> sectorMap;
+	protected final Map<Sector, Integer> sectorMap;
 	protected final int numSectors;
+	
+	private Function<DistanceMatrix, BoundStrategy> boundStrategy = MinIncomingEdgeBound::new;
+	private long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+	private final LongAdder spilled = new LongAdder();
+	private int diveInterval = DEFAULT_DIVE_INTERVAL;
+	private boolean warmStart;
 
 	/**
 	 * @see TspSolver#TspSolver(TspBuilder)
 	 */
 	public OptimizedTspSolver(TspBuilder builder){
 		super(builder);
-		sectorList = new Sector[sectors.size() + 1];
+		sectorList = distances.getSectorList();
 		sectorMap = new HashMap<>();
-		byte i = 1;
-		for(Sector s : sectors){
-			sectorMap.put(s, i);
-			sectorList[i++] = s;
+		for(int i = 1; i < sectorList.length; i++){
+			sectorMap.put(sectorList[i], i);
 		}
 		numSectors = sectors.size();		
+		warmStart = builder.isWarmStart();
 	}
 
 	
 	/**
 	 * Similar to {@link TspSolver#getBoundForPath(List)} but operates on
-	 * a byte[] for performance. 
-	 * @param path An array of sector ids in the order they have been visited
-	 * @param usedSectors Swapspace array used to track which sectors have been visited. 
-	 * 	 Does not need to be populated, but will be dirtied.
+	 * an int[] for performance. 
+	 * @param path An array of sector ids in the order they have been visited, padded with 0s
 	 * @return
 	 */
-	public int getBoundForPath(final byte[] path, boolean[] usedSectors){
+	public int getBoundForPath(final int[] path){
 		int bound = 0;
 		
 		if(path.length == 1 || path[1] == 0 ){
 			return bound;
 		} else {
 			//bound = cost of current steps + minimum edge from each unvisited node
+			long[] visited = SectorMask.create(numSectors);
 			
-			Arrays.fill(usedSectors, false);
-			
-			//sum the cost of each step so far and populate usedSectors
-			usedSectors[path[0]] = true;
+			//sum the cost of each step so far and populate visited
+			SectorMask.add(visited, path[0]);
 			int first, second;
 			for(first = 0, second=1; second < numSectors ; first++, second++){
 				if(path[second] == 0){
 					break;
 				}
-				bound += getDistance(sectorList[path[first]], sectorList[path[second]]);
-				usedSectors[path[second]] = true;
+				bound += distances.get(path[first], path[second]);
+				SectorMask.add(visited, path[second]);
 			}
 			
 			//if this is the complete path, we're done
@@ -69,18 +76,12 @@ public abstract class OptimizedTspSolver extends TspSolver {
 			}
 			
 			//then add the minimum distance out from each remaining nodes
-			for(int i = 1; i <= numSectors ; i++){
-				//if we've already traveled to this sector, skip it
-				if(usedSectors[i]) continue;
-				
-				//otherwise, find the nearest sector we haven't visited
-				int lowest = Integer.MAX_VALUE;
-				for(int j = 1; j <= numSectors ; j++){
-					//if you can't get from j to k, skip it
-					if(!shortestPaths.get(sectorList[i]).containsKey(sectorList[j])) continue;
-					//if we've visited it, skip it unless it's the last sector in our path
-					if(usedSectors[j] && j != path[first]) continue;
-					lowest = Math.min(shortestPaths.get(sectorList[j]).get(sectorList[i]), lowest);
+			for(int i = SectorMask.next(visited, 1, numSectors); i != SectorMask.NONE; i = SectorMask.next(visited, i + 1, numSectors)){
+				//find the nearest sector we haven't visited, or the last sector in our path
+				int lowest = distances.get(path[first], i);
+				for(int j = SectorMask.next(visited, 1, numSectors); j != SectorMask.NONE; j = SectorMask.next(visited, j + 1, numSectors)){
+					if(i == j) continue;
+					lowest = Math.min(distances.get(j, i), lowest);
 				}
 				bound += lowest;
 			}
@@ -88,7 +89,135 @@ public abstract class OptimizedTspSolver extends TspSolver {
 		}
 	}
 	
-	protected void logState(int queueSize, int currentBound, byte[] bestPath, byte[] longestPath){
+	/**
+	 * Sets the lower bound used to order and prune partial paths in subsequent calls to
+	 * solve(). Each worker thread creates its own instance with the factory, for example
+	 * <code>solver.setBoundStrategy(AssignmentBound::new)</code>. Defaults to {@link MinIncomingEdgeBound}.
+	 */
+	public void setBoundStrategy(Function<DistanceMatrix, BoundStrategy> boundStrategy){
+		this.boundStrategy = boundStrategy;
+	}
+
+	protected BoundStrategy newBoundStrategy(){
+		return boundStrategy.apply(distances);
+	}
+
+	/**
+	 * Sets roughly how many bytes of queued nodes subsequent calls to solve() may keep in
+	 * memory before spilling the worst of them to disk. Solvers that prune dominated paths give
+	 * half of it to their {@link DominanceTable} instead. Defaults to a quarter of the maximum heap.
+	 */
+	public void setMemoryBudget(long memoryBudget){
+		this.memoryBudget = memoryBudget;
+	}
+
+	protected long getMemoryBudget(){
+		return memoryBudget;
+	}
+
+	/**
+	 * @return Total number of queued nodes spilled to disk by calls to solve() so far
+	 */
+	public long getSpilled(){
+		return spilled.sum();
+	}
+
+	/**
+	 * Sets how often subsequent calls to solve() dive depth-first from the best queued node:
+	 * every diveInterval polled nodes, the solver follows the cheapest child down to a complete
+	 * path, queueing the other children as usual, so an incumbent is found early and starts
+	 * pruning. 0 searches purely best-first. Defaults to {@link #DEFAULT_DIVE_INTERVAL}.
+	 */
+	public void setDiveInterval(int diveInterval){
+		this.diveInterval = diveInterval;
+	}
+
+	protected int getDiveInterval(){
+		return diveInterval;
+	}
+
+	/**
+	 * Sets whether subsequent calls to solve() start from a heuristic path instead of no path at
+	 * all. The heuristic path only becomes the incumbent, so it is returned only if nothing cheaper
+	 * exists. Defaults to {@link TspBuilder#isWarmStart()}.
+	 */
+	public void setWarmStart(boolean warmStart){
+		this.warmStart = warmStart;
+	}
+
+	/**
+	 * Builds a path greedily from each root, always stepping to the nearest available sector and
+	 * finishing with the root's ending, then improves it with a {@link LocalSearchImprover}.
+	 * Sectors fixed by a seed or ending are left in place, so the path satisfies the same
+	 * constraints as the search.
+	 * @param roots The initial nodes of the search
+	 * @return The cheapest path found, or {@link Incumbent#NONE} if warm starts are disabled
+	 * 	or no root could be completed
+	 */
+	protected Incumbent warmStart(Queue<TspNode2> roots){
+		if(!warmStart){
+			return Incumbent.NONE;
+		}
+		long start = System.nanoTime();
+		LocalSearchImprover improver = new LocalSearchImprover(distances);
+		long bestCost = DistanceMatrix.UNREACHABLE;
+		int[] bestPath = null;
+		for(TspNode2 root : roots){
+			int[] ending = root.getEnding() == null ? new int[0] : root.getEnding();
+			int[] path = nearestNeighborPath(root.getPath(), ending);
+			if(path == null){
+				continue;
+			}
+			int fixedHead = useSeedsOnly || root.getLength() > 1 ? root.getLength() : 0;
+			long cost = improver.improve(path, fixedHead, ending.length);
+			if(cost < bestCost){
+				bestCost = cost;
+				bestPath = path;
+			}
+		}
+		if(bestPath == null){
+			return Incumbent.NONE;
+		}
+		logger.info("Warm start found cost " + bestCost + " path after " + (System.nanoTime() - start) / 1000000 + "ms");
+		return new Incumbent((int)bestCost, bestPath);
+	}
+
+	/**
+	 * @return An empty dominance table limited to half of the memory budget; the frontier
+	 * 	should then get only the other half
+	 */
+	protected DominanceTable newDominanceTable(){
+		return new DominanceTable(numSectors, memoryBudget / 2);
+	}
+
+	/**
+	 * @param memoryBudget Bytes of nodes to keep in memory, see {@link #setMemoryBudget}
+	 * @return An empty single-threaded queue of nodes ordered by bound
+	 */
+	protected Queue<TspNode2> newFrontier(long memoryBudget){
+		return new SpillingQueue(numSectors, memoryBudget, () -> new BucketQueue(numSectors), spilled::add);
+	}
+
+	protected void logExpanded(long expanded, BoundStrategy strategy){
+		logger.info("Expanded " + expanded + " nodes using " + strategy.getClass().getSimpleName());
+	}
+
+	/**
+	 * @param start System.nanoTime() when the search started
+	 */
+	protected void logFirstSolution(long start, long expanded, int cost){
+		logger.info("First path, cost " + cost + ", found after " + (System.nanoTime() - start) / 1000000
+				+ "ms and " + expanded + " expanded nodes");
+	}
+
+	/**
+	 * @return Cost of the steps in parent's path followed by a step to child
+	 */
+	protected int getChildPrefixCost(TspNode2 parent, int child){
+		return (int)Math.min((long)parent.getPrefixCost() + distances.get(parent.getLast(), child), Integer.MAX_VALUE);
+	}
+
+	protected void logState(int queueSize, int currentBound, int[] bestPath, int[] longestPath){
 		if(bestPath != null) {
 			super.logState(queueSize, currentBound, TspUtilities.sectorList(bestPath, sectorList), null);
 		} else {
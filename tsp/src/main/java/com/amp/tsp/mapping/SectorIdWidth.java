@@ -0,0 +1,88 @@
+package com.amp.tsp.mapping;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Number of bytes used for each sector id where whole paths are stored in bulk, chosen per map
+ * as the narrowest that holds its largest id. Ids are read back unsigned, so a map of up to 255
+ * sectors still takes one byte per step.
+ *
+ * In-memory search nodes hold ids as ints: a node stores a single id, and its object is padded
+ * to the same size whether that field is a byte or an int.
+ *
+ * @author alex
+ */
+enum SectorIdWidth {
+	BYTE(Byte.BYTES){
+		@Override
+		void put(ByteBuffer buffer, int id){
+			buffer.put((byte)id);
+		}
+
+		@Override
+		int get(ByteBuffer buffer){
+			return buffer.get() & 0xFF;
+		}
+	},
+	SHORT(Short.BYTES){
+		@Override
+		void put(ByteBuffer buffer, int id){
+			buffer.putShort((short)id);
+		}
+
+		@Override
+		int get(ByteBuffer buffer){
+			return buffer.getShort() & 0xFFFF;
+		}
+	},
+	INT(Integer.BYTES){
+		@Override
+		void put(ByteBuffer buffer, int id){
+			buffer.putInt(id);
+		}
+
+		@Override
+		int get(ByteBuffer buffer){
+			return buffer.getInt();
+		}
+	};
+
+	/** Bytes taken by each id */
+	final int bytes;
+
+	SectorIdWidth(int bytes){
+		this.bytes = bytes;
+	}
+
+	/**
+	 * @return The narrowest width that holds ids 1 through numSectors
+	 */
+	static SectorIdWidth forSectors(int numSectors){
+		if(numSectors <= 0xFF){
+			return BYTE;
+		}
+		return numSectors <= 0xFFFF ? SHORT : INT;
+	}
+
+	abstract void put(ByteBuffer buffer, int id);
+
+	abstract int get(ByteBuffer buffer);
+
+	/**
+	 * Writes the first length ids of path.
+	 */
+	void putPath(ByteBuffer buffer, int[] path, int length){
+		for(int i = 0; i < length; i++){
+			put(buffer, path[i]);
+		}
+	}
+
+	/**
+	 * Reads length ids into the start of path.
+	 */
+	void getPath(ByteBuffer buffer, int[] path, int length){
+		for(int i = 0; i < length; i++){
+			path[i] = get(buffer);
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package com.amp.tsp.mapping;
+
+import java.util.Arrays;
+
+/**
+ * Static helpers for treating a long[] as a set of sector ids, where bit <code>id</code>
+ * is set if the sector is in the set. Bit 0 is never used since 0 is not a valid id.
+ * A single long covers maps of up to 63 sectors.
+ *
+ * @author alex
+ */
+final class SectorMask {
+
+	/** Returned by {@link #next} when there are no more matching ids */
+	public static final int NONE = -1;
+
+	private SectorMask(){}
+
+	/**
+	 * @return An empty mask large enough to hold ids 1 through numSectors
+	 */
+	public static long[] create(int numSectors){
+		return new long[(numSectors >>> 6) + 1];
+	}
+
+	public static long[] of(int[] ids, int length, int numSectors){
+		long[] mask = create(numSectors);
+		for(int i = 0; i < length; i++){
+			add(mask, ids[i]);
+		}
+		return mask;
+	}
+
+	public static boolean contains(long[] mask, int id){
+		return (mask[id >>> 6] & (1L << id)) != 0;
+	}
+
+	public static void add(long[] mask, int id){
+		mask[id >>> 6] |= 1L << id;
+	}
+
+	/**
+	 * @return A copy of mask that also contains id
+	 */
+	public static long[] with(long[] mask, int id){
+		long[] copy = Arrays.copyOf(mask, mask.length);
+		add(copy, id);
+		return copy;
+	}
+
+	public static int size(long[] mask){
+		int size = 0;
+		for(long word : mask){
+			size += Long.bitCount(word);
+		}
+		return size;
+	}
+
+	/**
+	 * Finds the lowest id at or after <code>from</code> that is not in the mask. Typical use:
+	 * <pre>
+	 * for(int i = next(mask, 1, n); i != NONE; i = next(mask, i + 1, n))
+	 * </pre>
+	 * @param from First id to consider, must be at least 1
+	 * @param numSectors Largest valid id
+	 * @return The id, or {@link #NONE} if every id from <code>from</code> to numSectors is in the mask
+	 */
+	public static int next(long[] mask, int from, int numSectors){
+		int word = from >>> 6;
+		if(word >= mask.length){
+			return NONE;
+		}
+		long free = ~mask[word] & (-1L << from);
+		while(free == 0){
+			if(++word == mask.length){
+				return NONE;
+			}
+			free = ~mask[word];
+		}
+		int id = (word << 6) + Long.numberOfTrailingZeros(free);
+		return id <= numSectors ? id : NONE;
+	}
+
+	/**
+	 * Writes every id from 1 to numSectors that is not in the mask into ids.
+	 * @return The number of ids written
+	 */
+	public static int unvisited(long[] mask, int numSectors, int[] ids){
+		int count = 0;
+		for(int i = next(mask, 1, numSectors); i != NONE; i = next(mask, i + 1, numSectors)){
+			ids[count++] = i;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,289 @@
+package com.amp.tsp.mapping;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Process-wide cache of shortest path distances, so that solving the same map again with other
+ * seeds or constraints does not recompute them. Maps are keyed by a SHA-256 hash of their sector
+ * names and edge lists, so a map parsed again from the same file is a hit.
+ *
+ * Up to {@link #DEFAULT_MAX_ENTRIES} maps are kept in memory, evicting the least recently used.
+ * If a disk directory is set, each computed map is also written there, and maps missing from
+ * memory are read back from it before being computed.
+ *
+ * Entries hold sector names and a flat distance array rather than Sector objects, and each call
+ * returns a new map of the caller's sectors, so callers never share a map.
+ *
+ * @author alex
+ */
+public class ShortestPathCache {
+	private static final Logger logger = Logger.getLogger(ShortestPathCache.class);
+	private static final ShortestPathCache instance = new ShortestPathCache();
+
+	/** Default number of maps kept in memory */
+	public static final int DEFAULT_MAX_ENTRIES = 32;
+
+	private int maxEntries = DEFAULT_MAX_ENTRIES;
+	private Path diskDirectory;
+	private final Map<String, Distances> entries = new LinkedHashMap<String, Distances>(16, 0.75f, true){
+		@Override
+		protected boolean removeEldestEntry(Entry<String, Distances> eldest){
+			return size() > maxEntries;
+		}
+	};
+	private long hits, diskHits, misses;
+
+	public static ShortestPathCache getInstance(){
+		return instance;
+	}
+
+	/**
+	 * @param maxEntries Number of maps kept in memory; the least recently used are evicted first
+	 */
+	public synchronized void setMaxEntries(int maxEntries){
+		this.maxEntries = Math.max(0, maxEntries);
+		while(entries.size() > this.maxEntries){
+			entries.remove(entries.keySet().iterator().next());
+		}
+	}
+
+	/**
+	 * @param diskDirectory Existing directory that distances are also written to and read from,
+	 * 	or null to keep them in memory only
+	 */
+	public synchronized void setDiskDirectory(Path diskDirectory){
+		this.diskDirectory = diskDirectory;
+	}
+
+	/**
+	 * @return Same as {@link TspUtilities#calculateShortestPaths}, computed only if this map is
+	 * 	neither in memory nor on disk
+	 */
+	public Map<Sector, Map<Sector, Integer>> shortestPaths(Set<Sector> sectors){
+		String key = hash(sectors);
+		Distances cached;
+		Path directory;
+		synchronized(this){
+			cached = entries.get(key);
+			directory = diskDirectory;
+			if(cached != null){
+				hits++;
+			}
+		}
+		if(cached == null && directory != null){
+			cached = read(directory.resolve(key));
+			if(cached != null){
+				synchronized(this){
+					diskHits++;
+					entries.put(key, cached);
+				}
+			}
+		}
+		if(cached != null){
+			Map<Sector, Map<Sector, Integer>> shortestPaths = cached.toMap(sectors);
+			if(shortestPaths != null){
+				return shortestPaths;
+			}
+		}
+
+		Map<Sector, Map<Sector, Integer>> shortestPaths = TspUtilities.calculateShortestPaths(sectors);
+		Distances computed = new Distances(sectors, shortestPaths);
+		synchronized(this){
+			misses++;
+			entries.put(key, computed);
+		}
+		if(directory != null){
+			write(directory.resolve(key), computed);
+		}
+		return shortestPaths;
+	}
+
+	/**
+	 * Empties the memory tier and resets the counters. Files on disk are kept.
+	 */
+	public synchronized void clear(){
+		entries.clear();
+		hits = 0;
+		diskHits = 0;
+		misses = 0;
+	}
+
+	/** @return Number of maps found in memory */
+	public synchronized long getHits(){
+		return hits;
+	}
+
+	/** @return Number of maps read back from the disk directory */
+	public synchronized long getDiskHits(){
+		return diskHits;
+	}
+
+	/** @return Number of maps that had to be computed */
+	public synchronized long getMisses(){
+		return misses;
+	}
+
+	/**
+	 * @return Hex SHA-256 of the sectors' names and edge lists, in name order
+	 */
+	static String hash(Set<Sector> sectors){
+		List<Sector> sorted = new ArrayList<>(sectors);
+		sorted.sort(Comparator.comparing(Sector::getName));
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			DataOutputStream out = new DataOutputStream(new DigestOutputStream(new NullOutputStream(), digest));
+			out.writeInt(sorted.size());
+			for(Sector s : sorted){
+				List<Entry<Sector, Integer>> edges = new ArrayList<>(s.getEdgeList().entrySet());
+				edges.sort(Comparator.comparing(edge -> edge.getKey().getName()));
+				out.writeUTF(s.getName());
+				out.writeInt(edges.size());
+				for(Entry<Sector, Integer> edge : edges){
+					out.writeUTF(edge.getKey().getName());
+					out.writeInt(edge.getValue());
+				}
+			}
+			out.flush();
+			StringBuilder sb = new StringBuilder();
+			for(byte b : digest.digest()){
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException | IOException e) {
+			throw new IllegalStateException("Unable to hash sectors", e);
+		}
+	}
+
+	private Distances read(Path file){
+		if(!Files.isRegularFile(file)){
+			return null;
+		}
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))){
+			String[] names = new String[in.readInt()];
+			for(int i = 0; i < names.length; i++){
+				names[i] = in.readUTF();
+			}
+			int[] distances = new int[names.length * names.length];
+			for(int i = 0; i < distances.length; i++){
+				distances[i] = in.readInt();
+			}
+			return new Distances(names, distances);
+		} catch (IOException e) {
+			logger.error("Unable to read cached shortest paths from " + file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes to a temporary file first, so that no other reader sees a partial file.
+	 */
+	private void write(Path file, Distances distances){
+		try {
+			Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))){
+				out.writeInt(distances.names.length);
+				for(String name : distances.names){
+					out.writeUTF(name);
+				}
+				for(int distance : distances.distances){
+					out.writeInt(distance);
+				}
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			logger.error("Unable to write cached shortest paths to " + file, e);
+		}
+	}
+
+	/**
+	 * Distances between named sectors, in a flat array indexed like the names.
+	 */
+	private static class Distances {
+		final String[] names;
+		final int[] distances; //distances[i * n + j], 0 for i == j
+
+		Distances(String[] names, int[] distances){
+			this.names = names;
+			this.distances = distances;
+		}
+
+		Distances(Set<Sector> sectors, Map<Sector, Map<Sector, Integer>> shortestPaths){
+			Sector[] sectorList = sectors.toArray(new Sector[sectors.size()]);
+			int n = sectorList.length;
+			names = new String[n];
+			distances = new int[n * n];
+			for(int i = 0; i < n; i++){
+				names[i] = sectorList[i].getName();
+				for(int j = 0; j < n; j++){
+					distances[i * n + j] = i == j ? 0 : shortestPaths.get(sectorList[i]).get(sectorList[j]);
+				}
+			}
+		}
+
+		/**
+		 * @return A new map of the given sectors, or null if they are not the cached ones
+		 */
+		Map<Sector, Map<Sector, Integer>> toMap(Set<Sector> sectors){
+			int n = names.length;
+			if(sectors.size() != n){
+				return null;
+			}
+			Map<String, Sector> byName = new HashMap<>();
+			for(Sector s : sectors){
+				byName.put(s.getName(), s);
+			}
+			Sector[] sectorList = new Sector[n];
+			for(int i = 0; i < n; i++){
+				sectorList[i] = byName.get(names[i]);
+				if(sectorList[i] == null){
+					return null;
+				}
+			}
+			Map<Sector, Map<Sector, Integer>> shortestPaths = new HashMap<>();
+			for(int i = 0; i < n; i++){
+				Map<Sector, Integer> paths = new HashMap<>();
+				for(int j = 0; j < n; j++){
+					if(i != j){
+						paths.put(sectorList[j], distances[i * n + j]);
+					}
+				}
+				shortestPaths.put(sectorList[i], paths);
+			}
+			return shortestPaths;
+		}
+	}
+
+	/**
+	 * Discards everything written to it; the hash is taken by the digest in front of it.
+	 */
+	private static class NullOutputStream extends OutputStream {
+		@Override
+		public void write(int b){
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len){
+		}
+	}
+}
@@ -0,0 +1,235 @@
+package com.amp.tsp.mapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * All-pairs shortest paths that are kept up to date as a map is edited, so that solving an
+ * edited map does not always start with a full Floyd-Warshall.
+ *
+ * Each update is compared edge by edge with the last one. If no edge got longer, every changed
+ * edge touches one of a few "pivot" sectors, and each pivot is handled in O(n^2): its row
+ * and column are rebuilt from its edges and the old distances, then every pair is relaxed
+ * through it. A new sector is a pivot whose edges were all missing before. If any edge got
+ * longer or a sector was removed, old paths may no longer exist, so everything is recomputed
+ * with {@link TspUtilities#allPairsShortestPaths}.
+ *
+ * @author alex
+ */
+public class ShortestPaths {
+	private static final Logger logger = Logger.getLogger(ShortestPaths.class);
+
+	private final List<Sector> sectorList = new ArrayList<>();
+	private final Map<Sector, Integer> ids = new HashMap<>();
+	private int n;
+	private int[] edges = new int[0]; //edges[i * n + j] = length of the edge from i to j, MAX_VALUE for none
+	private int[] distances = new int[0]; //distances[i * n + j] = shortest path from i to j, MAX_VALUE for none
+
+	/**
+	 * Creates an empty structure; the first {@link #update} computes everything.
+	 */
+	public ShortestPaths(){
+	}
+
+	public ShortestPaths(Set<Sector> sectors){
+		update(sectors);
+	}
+
+	/**
+	 * Brings the distances up to date with the given sectors and their edge lists, which may
+	 * be new objects for the same sector names.
+	 */
+	public void update(Set<Sector> sectors){
+		for(Sector s : sectorList){
+			if(!sectors.contains(s)){
+				rebuild(sectors);
+				return;
+			}
+		}
+		int m = n;
+		for(Sector s : sectors){
+			if(!ids.containsKey(s)){
+				ids.put(s, sectorList.size());
+				sectorList.add(s);
+			}
+			sectorList.set(ids.get(s), s);
+		}
+		n = sectorList.size();
+		int[] next = loadEdges();
+
+		//new sectors start out with no edges, so their changes are decreases like any other
+		int[] grownEdges = new int[n * n];
+		int[] grownDistances = new int[n * n];
+		Arrays.fill(grownEdges, Integer.MAX_VALUE);
+		Arrays.fill(grownDistances, Integer.MAX_VALUE);
+		for(int i = 0; i < n; i++){
+			grownEdges[i * n + i] = 0;
+			grownDistances[i * n + i] = 0;
+		}
+		for(int i = 0; i < m; i++){
+			System.arraycopy(edges, i * m, grownEdges, i * n, m);
+			System.arraycopy(distances, i * m, grownDistances, i * n, m);
+		}
+		edges = grownEdges;
+		distances = grownDistances;
+
+		int[] changes = new int[n];
+		for(int i = 0; i < n; i++){
+			for(int j = 0; j < n; j++){
+				if(next[i * n + j] > edges[i * n + j]){
+					edges = next;
+					recompute();
+					return;
+				} else if(next[i * n + j] < edges[i * n + j]){
+					changes[i]++;
+					changes[j]++;
+				}
+			}
+		}
+
+		//each changed edge is handled by whichever end has more changes, which keeps pivots few
+		boolean[] pivot = new boolean[n];
+		int numPivots = 0;
+		for(int i = 0; i < n; i++){
+			for(int j = 0; j < n; j++){
+				if(next[i * n + j] < edges[i * n + j]){
+					int owner = changes[i] >= changes[j] ? i : j;
+					if(!pivot[owner]){
+						pivot[owner] = true;
+						numPivots++;
+					}
+				}
+			}
+		}
+		//a pivot costs a few n^2 steps against n^3 for a full recompute
+		if(numPivots * 4 > n){
+			edges = next;
+			recompute();
+			return;
+		}
+		//every changed edge touches a pivot, and is applied with the first pivot it touches
+		for(int v = 0; v < n; v++){
+			if(pivot[v]){
+				for(int u = 0; u < n; u++){
+					edges[v * n + u] = next[v * n + u];
+					edges[u * n + v] = next[u * n + v];
+				}
+				relaxThrough(v);
+			}
+		}
+		edges = next;
+		logger.info("Updated shortest paths through " + numPivots + " of " + n + " sectors");
+	}
+
+	/**
+	 * @return Map in which map.get(s1).get(s2) returns the distance between s1 and s2, or
+	 * 	Integer.MAX_VALUE if there is no path, as from {@link TspUtilities#calculateShortestPaths}
+	 */
+	public Map<Sector, Map<Sector, Integer>> toMap(){
+		Map<Sector, Map<Sector, Integer>> shortestPaths = new HashMap<>();
+		for(int i = 0; i < n; i++){
+			Map<Sector, Integer> paths = new HashMap<>();
+			for(int j = 0; j < n; j++){
+				if(i != j){
+					paths.put(sectorList.get(j), distances[i * n + j]);
+				}
+			}
+			shortestPaths.put(sectorList.get(i), paths);
+		}
+		return shortestPaths;
+	}
+
+	/**
+	 * @return The shortest distance from one sector to another, or Integer.MAX_VALUE if there
+	 * 	is no path
+	 */
+	public int get(Sector from, Sector to){
+		return distances[ids.get(from) * n + ids.get(to)];
+	}
+
+	/**
+	 * Re-indexes the given sectors and recomputes every distance.
+	 */
+	private void rebuild(Set<Sector> sectors){
+		sectorList.clear();
+		ids.clear();
+		for(Sector s : sectors){
+			ids.put(s, sectorList.size());
+			sectorList.add(s);
+		}
+		n = sectorList.size();
+		edges = loadEdges();
+		recompute();
+	}
+
+	private void recompute(){
+		distances = edges.clone();
+		TspUtilities.allPairsShortestPaths(distances, n);
+		logger.info("Recomputed shortest paths between " + n + " sectors");
+	}
+
+	/**
+	 * @return The edges of the current sectors, 0 for self and MAX_VALUE where there is none
+	 */
+	private int[] loadEdges(){
+		int[] loaded = new int[n * n];
+		Arrays.fill(loaded, Integer.MAX_VALUE);
+		for(int i = 0; i < n; i++){
+			loaded[i * n + i] = 0;
+			for(Entry<Sector, Integer> edge : sectorList.get(i).getEdgeList().entrySet()){
+				Integer j = ids.get(edge.getKey());
+				if(j != null && j != i){
+					loaded[i * n + j] = edge.getValue();
+				}
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Updates the distances after edges into and out of v got shorter, given that they were
+	 * exact before. Any path that got shorter now passes through v, and the parts of it before
+	 * and after v do not, so they were already known.
+	 */
+	private void relaxThrough(int v){
+		for(int i = 0; i < n; i++){
+			if(i == v){
+				continue;
+			}
+			long toV = distances[i * n + v], fromV = distances[v * n + i];
+			for(int u = 0; u < n; u++){
+				if(u == v){
+					continue;
+				}
+				if(edges[u * n + v] != Integer.MAX_VALUE && distances[i * n + u] != Integer.MAX_VALUE){
+					toV = Math.min(toV, (long)distances[i * n + u] + edges[u * n + v]);
+				}
+				if(edges[v * n + u] != Integer.MAX_VALUE && distances[u * n + i] != Integer.MAX_VALUE){
+					fromV = Math.min(fromV, (long)edges[v * n + u] + distances[u * n + i]);
+				}
+			}
+			distances[i * n + v] = (int)Math.min(toV, Integer.MAX_VALUE);
+			distances[v * n + i] = (int)Math.min(fromV, Integer.MAX_VALUE);
+		}
+		IntStream.range(0, n).parallel().forEach(i -> {
+			int i2v = distances[i * n + v];
+			if(i2v == Integer.MAX_VALUE){
+				return;
+			}
+			for(int j = 0; j < n; j++){
+				int v2j = distances[v * n + j];
+				if(v2j != Integer.MAX_VALUE && (long)i2v + v2j < distances[i * n + j]){
+					distances[i * n + j] = i2v + v2j;
+				}
+			}
+		});
+	}
+}
@@ -1,88 +1,441 @@
 package com.amp.tsp.mapping;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
 
 /**
+ * Anneals a path of sector ids with swap, 2-opt and Or-opt moves. Each move's change in cost is
+ * computed in O(1) before it is applied, so a rejected move costs nothing to undo: it is simply
+ * never made. 2-opt reversals of asymmetric paths are priced from running sums of the path's
+ * forward and backward edges, which are only rebuilt when a move is accepted.
+ *
+ * The temperature falls geometrically from the start temperature to the end temperature over
+ * the time budget. A start temperature of 0 is replaced by one calibrated from the path, so that
+ * an average uphill move is initially accepted about half of the time. The best path seen is
+ * polished with a {@link LocalSearchImprover} before it is returned.
+ *
+ * With more than one chain the solver runs parallel tempering: each chain anneals its own path
+ * on its own thread, at the current temperature times {@link #TEMPERATURE_RATIO} to the power of
+ * its level, so hot chains explore while cold ones refine. Every {@link #EXCHANGE_INTERVAL} moves
+ * the chains meet at a barrier, where neighboring levels swap chains with the usual replica
+ * exchange probability and the best path is collected.
+ *
+ * Sectors fixed by a required seed or ending constraint are never moved.
+ *
  * Created by APritchard on 12/19/2016.
  */
 public class SimulatedAnnealingTspSolver extends TspSolver {
+  /** Default time spent annealing, in milliseconds */
+  public static final long DEFAULT_TIME_BUDGET = 2000;
+  /** Default temperature at the end of the time budget */
+  public static final double DEFAULT_END_TEMPERATURE = 0.1;
+  /** Ratio between the temperatures of neighboring chains in parallel tempering */
+  public static final double TEMPERATURE_RATIO = 1.5;
+  /** Number of moves each chain makes between replica exchanges */
+  public static final int EXCHANGE_INTERVAL = 1 << 14;
 
-  private List<Sector> workPath;
-  private List<Sector> previousWorkPath;
-  private static final Random random = new Random();
+  private static final int OR_OPT_LENGTH = 3;
+
+  private long timeBudget = DEFAULT_TIME_BUDGET;
+  private double startTemperature = 0;
+  private double endTemperature = DEFAULT_END_TEMPERATURE;
+  private int numChains = 1;
+  private long seed = System.nanoTime();
+
+  //shared between chains, only written by the barrier action
+  private Chain[] levels; //levels[0] is the coldest chain
+  private int[] bestPath;
+  private long bestCost;
+  private double t0, t1, temperature;
+  private long startTime;
+  private volatile boolean finished;
+  private final List<Long> bestCostPerSecond = new ArrayList<>();
+  private SplittableRandom exchangeRandom;
 
   public SimulatedAnnealingTspSolver(TspSolution.TspBuilder builder) {
     super(builder);
   }
 
+  /**
+   * @param timeBudget Milliseconds spent annealing in subsequent calls to solve()
+   */
+  public void setTimeBudget(long timeBudget) {
+    this.timeBudget = timeBudget;
+  }
+
+  /**
+   * @param startTemperature Temperature at the start of the search, or 0 to calibrate it from the path
+   * @param endTemperature Temperature reached at the end of the time budget
+   */
+  public void setSchedule(double startTemperature, double endTemperature) {
+    this.startTemperature = startTemperature;
+    this.endTemperature = endTemperature;
+  }
+
+  /**
+   * @param numChains Number of chains, each on its own thread, for parallel tempering in
+   *   subsequent calls to solve(). Defaults to 1, a single annealing chain.
+   */
+  public void setNumChains(int numChains) {
+    this.numChains = Math.max(1, numChains);
+  }
+
+  /**
+   * @param seed Seed for the random moves, so that runs can be repeated
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * @return Cost of the best path found by the end of each second of the last solve(), before
+   *   the final local search
+   */
+  public List<Long> getBestCostPerSecond() {
+    return bestCostPerSecond;
+  }
+
   @Override
   public List<Sector> solve() {
-    generateInitialPath();
-    List<Sector> bestPath = workPath;
-    int bestDistance = getBoundForPath(bestPath);
-    logger.info("Starting path: " + TspUtilities.routeString(bestPath));
-    logger.info("Distance: " + bestDistance);
-
-    double startingTemperature = 100.0;
-    double coolingRate = 0.99999;
-    int numberOfIterations = 100000000;
-
-    double t = startingTemperature;
-
-    for(int i = 0; i < numberOfIterations; i++){
-      if(t < 0.1) {
-//        logger.info("SHUFFLING");
-        generateInitialPath();
-        t = startingTemperature;
-      }
-      swapCities();
-      int currentDistance = getBoundForPath(workPath);
-      if (currentDistance == bestDistance){
-        continue; //no change, don't math
+    Start start = start();
+    if (start == null) {
+      logger.warn("No complete path found");
+      return new ArrayList<>();
+    }
+    SplittableRandom random = new SplittableRandom(seed);
+    exchangeRandom = random.split();
+    levels = new Chain[numChains];
+    for (int level = 0; level < numChains; level++) {
+      levels[level] = new Chain(start, random.split());
+    }
+    bestPath = start.path.clone();
+    bestCost = levels[0].cost;
+    bestCostPerSecond.clear();
+    logger.info("Starting path cost: " + bestCost);
+
+    t0 = startTemperature > 0 ? startTemperature : levels[0].calibrate();
+    t1 = Math.min(endTemperature, t0);
+    temperature = t0;
+    finished = false;
+    startTime = System.currentTimeMillis();
+
+    CyclicBarrier barrier = new CyclicBarrier(numChains, this::exchange);
+    List<Thread> threads = new ArrayList<>();
+    for (Chain chain : levels.clone()) {
+      Thread thread = new Thread(() -> chain.run(barrier), "annealing-chain");
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        logger.warn("Interrupted while waiting for annealing chains; returning the best path so far.");
+        Thread.currentThread().interrupt();
       }
-      if(currentDistance < bestDistance){
-        bestDistance = currentDistance;
-        bestPath = new ArrayList(workPath);
-        logger.info(String.format("Best Path: %s \nDistance: %d", TspUtilities.routeString(bestPath), bestDistance));
-      } else {
-        double math = Math.exp((currentDistance - bestDistance) / t);
-        if(math < Math.random()) {
-          logger.info("REVERT (" + math + ")");
-          revertSwap();
-        }
+    }
+
+    long moves = 0, accepted = 0;
+    for (Chain chain : levels) {
+      moves += chain.moves;
+      accepted += chain.accepted;
+    }
+    logger.info("Annealed " + moves + " moves across " + numChains + " chains, accepted " + accepted
+        + ", best cost " + bestCost + ", best cost per second " + bestCostPerSecond);
+
+    long polished = new LocalSearchImprover(distances).improve(bestPath, start.lo, bestPath.length - start.hi);
+    logger.info("Local search improved best cost " + bestCost + " to " + polished);
+    levels = null;
+    return TspUtilities.sectorList(bestPath, distances.getSectorList());
+  }
+
+  /**
+   * Runs on one thread when every chain has reached the barrier: collects the best path,
+   * exchanges neighboring chains, and cools the schedule.
+   */
+  private void exchange() {
+    for (Chain chain : levels) {
+      if (chain.bestCost < bestCost) {
+        bestCost = chain.bestCost;
+        System.arraycopy(chain.bestPath, 0, bestPath, 0, bestPath.length);
       }
-      t *= coolingRate;
-      if(i %1000000 == 0){
-        logger.info(String.format("i(%d) best(%d)", i, bestDistance));
+    }
+
+    for (int level = 0; level + 1 < levels.length; level++) {
+      //swap with probability exp((1/T_cold - 1/T_hot) * (E_cold - E_hot))
+      double cold = temperature(level), hot = temperature(level + 1);
+      double p = Math.exp((1 / cold - 1 / hot) * (levels[level].cost - levels[level + 1].cost));
+      if (p >= 1 || exchangeRandom.nextDouble() < p) {
+        Chain swap = levels[level];
+        levels[level] = levels[level + 1];
+        levels[level + 1] = swap;
       }
     }
 
-    logger.info(String.format("Returning [%s] Distance: [%d]", TspUtilities.routeString(bestPath), bestDistance));
-    return bestPath;
+    long elapsed = System.currentTimeMillis() - startTime;
+    double fraction = (double) elapsed / timeBudget;
+    finished = fraction >= 1;
+    //the last, partial second of the budget is also recorded when the search finishes
+    long seconds = finished ? Math.max(elapsed / 1000, (timeBudget + 999) / 1000) : elapsed / 1000;
+    while (bestCostPerSecond.size() < seconds) {
+      bestCostPerSecond.add(bestCost);
+    }
+    if (!finished) {
+      temperature = t0 * Math.pow(t1 / t0, fraction);
+      updateProgress((int) (fraction * bestPath.length));
+    }
   }
 
+  private double temperature(int level) {
+    return temperature * Math.pow(TEMPERATURE_RATIO, level);
+  }
 
-  private void generateInitialPath(){
-    if(workPath == null){
-      workPath = new ArrayList<>(sectors);
+  /**
+   * Starts from the cheapest greedy path among the initial nodes.
+   * @return The path and its movable range, or null if no initial node can be completed
+   */
+  private Start start() {
+    Start best = null;
+    for (TspNode root : getInitialNodes()) {
+      int[] ending = ids(root.getEnding());
+      int[] greedy = nearestNeighborPath(ids(root.getPath()), ending);
+      if (greedy == null) {
+        continue;
+      }
+      long cost = 0;
+      for (int k = 1; k < greedy.length; k++) {
+        cost += distances.get(greedy[k - 1], greedy[k]);
+      }
+      if (best == null || cost < best.cost) {
+        int lo = useSeedsOnly || root.getPath().size() > 1 ? root.getPath().size() : 0;
+        best = new Start(greedy, lo, greedy.length - ending.length, cost);
+      }
     }
-    Collections.shuffle(workPath);
+    return best;
   }
 
-  private void swapCities(){
-    int a = random.nextInt(workPath.size());
-    int b = random.nextInt(workPath.size());
+  /**
+   * A greedy path and the range of it that may be changed.
+   */
+  private static class Start {
+    final int[] path;
+    final int lo, hi; //movable sectors are path[lo..hi)
+    final long cost;
 
-    previousWorkPath = workPath;
-    Sector temp = workPath.get(a);
-    workPath.set(a, workPath.get(b));
-    workPath.set(b, temp);
+    Start(int[] path, int lo, int hi, long cost) {
+      this.path = path;
+      this.lo = lo;
+      this.hi = hi;
+      this.cost = cost;
+    }
   }
 
-  private void revertSwap(){
-    workPath = previousWorkPath;
+  /**
+   * One annealing chain and the path it is changing. Only its own thread touches it, except
+   * in the barrier action while every chain is waiting.
+   */
+  private class Chain {
+    private final int[] path;
+    private final long[] forward; //forward[k] = cost of path[0..k]
+    private final long[] backward; //backward[k] = cost of path[0..k] travelled in reverse
+    private final int lo, hi; //movable sectors are path[lo..hi)
+    private final int[] segment = new int[OR_OPT_LENGTH];
+    private final SplittableRandom random;
+    private final int[] bestPath;
+    private long cost, bestCost;
+    private long moves, accepted;
+
+    Chain(Start start, SplittableRandom random) {
+      this.path = start.path.clone();
+      this.lo = start.lo;
+      this.hi = start.hi;
+      this.random = random;
+      forward = new long[path.length];
+      backward = new long[path.length];
+      sums(1);
+      cost = forward[path.length - 1];
+      bestCost = cost;
+      bestPath = path.clone();
+    }
+
+    void run(CyclicBarrier barrier) {
+      try {
+        while (!finished) {
+          anneal(temperature(level()), EXCHANGE_INTERVAL);
+          barrier.await();
+        }
+      } catch (InterruptedException | BrokenBarrierException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private int level() {
+      for (int level = 0; level < levels.length; level++) {
+        if (levels[level] == this) {
+          return level;
+        }
+      }
+      throw new IllegalStateException("Chain has no temperature level");
+    }
+
+    /**
+     * Makes the given number of random moves at temperature t.
+     */
+    private void anneal(double t, int count) {
+      for (int iteration = 0; iteration < count && hi - lo > 1; iteration++) {
+        moves++;
+        //pick i < j for a swap or reversal, or a segment path[i..last] and a sector j to move it after
+        long delta;
+        int move = random.nextInt(3);
+        int i = lo + random.nextInt(hi - lo);
+        int j = lo + random.nextInt(hi - lo - 1);
+        int last = 0;
+        if (j >= i) {
+          j++;
+        } else {
+          int swap = i;
+          i = j;
+          j = swap;
+        }
+        if (move == 0) {
+          delta = swapDelta(i, j);
+        } else if (move == 1) {
+          delta = reverseDelta(i, j);
+        } else {
+          last = Math.min(i + random.nextInt(OR_OPT_LENGTH), hi - 1);
+          j = lo - 1 + random.nextInt(hi - lo + 1);
+          if (j >= i - 1 && j <= last) {
+            continue;
+          }
+          delta = moveDelta(i, last, j);
+        }
+
+        //Metropolis rule: rejected moves were never applied, so there is nothing to revert
+        if (delta <= 0 || random.nextDouble() < Math.exp(-delta / t)) {
+          accepted++;
+          if (move == 0) {
+            swap(i, j);
+          } else if (move == 1) {
+            reverse(i, j);
+          } else {
+            move(i, last, j);
+          }
+          cost += delta;
+          if (cost < bestCost) {
+            bestCost = cost;
+            System.arraycopy(path, 0, bestPath, 0, path.length);
+          }
+        }
+      }
+    }
+
+    /**
+     * @return A temperature at which the average uphill move among a sample is accepted
+     * with probability 1/2
+     */
+    double calibrate() {
+      long total = 0;
+      int uphill = 0;
+      for (int sample = 0; sample < 1000 && hi - lo > 1; sample++) {
+        int i = lo + random.nextInt(hi - lo - 1);
+        int j = i + 1 + random.nextInt(hi - i - 1);
+        long delta = random.nextBoolean() ? swapDelta(i, j) : reverseDelta(i, j);
+        if (delta > 0 && delta < DistanceMatrix.UNREACHABLE) {
+          total += delta;
+          uphill++;
+        }
+      }
+      return uphill == 0 ? 1 : (double) total / uphill / Math.log(2);
+    }
+
+    /**
+     * @return Change in cost from exchanging path[i] and path[j], where i &lt; j
+     */
+    private long swapDelta(int i, int j) {
+      int a = path[i], b = path[j];
+      if (j == i + 1) {
+        return d(at(i - 1), b) + d(b, a) + d(a, at(j + 1))
+            - d(at(i - 1), a) - d(a, b) - d(b, at(j + 1));
+      }
+      return d(at(i - 1), b) + d(b, path[i + 1]) + d(path[j - 1], a) + d(a, at(j + 1))
+          - d(at(i - 1), a) - d(a, path[i + 1]) - d(path[j - 1], b) - d(b, at(j + 1));
+    }
+
+    /**
+     * @return Change in cost from reversing path[i..j]
+     */
+    private long reverseDelta(int i, int j) {
+      return (backward[j] - backward[i]) - (forward[j] - forward[i])
+          + d(at(i - 1), path[j]) - d(at(i - 1), path[i])
+          + d(path[i], at(j + 1)) - d(path[j], at(j + 1));
+    }
+
+    /**
+     * @return Change in cost from moving path[i..last] to just after path[x]
+     */
+    private long moveDelta(int i, int last, int x) {
+      return d(at(i - 1), at(last + 1)) - d(at(i - 1), path[i]) - d(path[last], at(last + 1))
+          + d(at(x), path[i]) + d(path[last], at(x + 1)) - d(at(x), at(x + 1));
+    }
+
+    private void swap(int i, int j) {
+      int swap = path[i];
+      path[i] = path[j];
+      path[j] = swap;
+      sums(i);
+    }
+
+    private void reverse(int i, int j) {
+      for (int a = i, b = j; a < b; a++, b--) {
+        int swap = path[a];
+        path[a] = path[b];
+        path[b] = swap;
+      }
+      sums(i);
+    }
+
+    /**
+     * Moves path[i..last] to just after path[x].
+     */
+    private void move(int i, int last, int x) {
+      int length = last - i + 1;
+      System.arraycopy(path, i, segment, 0, length);
+      if (x > last) {
+        System.arraycopy(path, last + 1, path, i, x - last);
+        System.arraycopy(segment, 0, path, x - length + 1, length);
+        sums(i);
+      } else {
+        System.arraycopy(path, x + 1, path, x + 1 + length, i - x - 1);
+        System.arraycopy(segment, 0, path, x + 1, length);
+        sums(x + 1);
+      }
+    }
+
+    /**
+     * Rebuilds the running sums from index k onwards.
+     */
+    private void sums(int k) {
+      for (k = Math.max(k, 1); k < path.length; k++) {
+        forward[k] = forward[k - 1] + distances.get(path[k - 1], path[k]);
+        backward[k] = backward[k - 1] + distances.get(path[k], path[k - 1]);
+      }
+    }
+
+    /**
+     * @return The sector id at index k of the path, or 0 past either end
+     */
+    private int at(int k) {
+      return k < 0 || k >= path.length ? 0 : path[k];
+    }
+
+    /**
+     * @return Distance from a to b, or 0 if either is 0 (past the end of the path)
+     */
+    private long d(int a, int b) {
+      return a == 0 || b == 0 ? 0 : distances.get(a, b);
+    }
   }
 }
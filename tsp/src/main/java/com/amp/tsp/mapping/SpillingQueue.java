@@ -0,0 +1,353 @@
+package com.amp.tsp.mapping;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Frontier that keeps at most a fixed amount of memory's worth of nodes in an in-memory queue.
+ * When that fills up, the better half is kept and the rest are written, in order, to a run file
+ * on disk. poll merges the in-memory queue with the heads of the run files, which are read back
+ * a small buffer at a time, so spilled nodes come back exactly when the search reaches their
+ * bounds. Files are only open while a buffer is being written or refilled.
+ *
+ * Only the path is written for each node, using the narrowest {@link SectorIdWidth} for the map;
+ * the visited set is rebuilt from it when it is read back. Endings are shared by many nodes, so
+ * they stay in memory and are written as an index.
+ *
+ * Not thread-safe.
+ *
+ * @author alex
+ */
+class SpillingQueue extends AbstractQueue<TspNode2> {
+	private static final Logger logger = Logger.getLogger(SpillingQueue.class);
+	private static final int WRITE_BUFFER_BYTES = 1 << 16;
+	private static final int READ_BUFFER_BYTES = 1 << 13;
+
+	private final int numSectors;
+	private final SectorIdWidth width;
+	private final int maxRecordBytes;
+	private final int maxInMemory;
+	private final Supplier<Queue<TspNode2>> memoryFactory;
+	private final LongConsumer onSpill;
+	private final List<Run> runs = new ArrayList<>();
+
+	//endings of spilled nodes, which are shared rather than written out
+	private final Map<int[], Integer> endingIndex = new IdentityHashMap<>();
+	private final List<int[]> endings = new ArrayList<>();
+	private final List<long[]> endingMasks = new ArrayList<>();
+
+	private Queue<TspNode2> memory;
+	private long spilled;
+
+	/**
+	 * @param numSectors Number of sectors in the map
+	 * @param memoryBudget Approximate number of bytes the in-memory nodes may take up
+	 * @param memoryFactory Creates the queue used for the in-memory nodes
+	 * @param onSpill Given the number of nodes each time some are written to disk
+	 */
+	public SpillingQueue(int numSectors, long memoryBudget, Supplier<Queue<TspNode2>> memoryFactory, LongConsumer onSpill){
+		this.numSectors = numSectors;
+		this.width = SectorIdWidth.forSectors(numSectors);
+		this.maxRecordBytes = 4 + 4 + 4 + width.bytes * (1 + numSectors);
+		this.maxInMemory = (int)Math.max(2, Math.min(Integer.MAX_VALUE, memoryBudget / bytesPerNode(numSectors)));
+		this.memoryFactory = memoryFactory;
+		this.onSpill = onSpill;
+		this.memory = memoryFactory.get();
+		endings.add(null);
+		endingMasks.add(null);
+	}
+
+	/**
+	 * @return Rough heap footprint of one queued node: the object plus its visited set. Paths
+	 * 	are shared with the node's ancestors, so they are not counted.
+	 */
+	public static long bytesPerNode(int numSectors){
+		long node = 48;
+		long visited = align(16 + 8 * ((numSectors >>> 6) + 1));
+		return node + visited;
+	}
+
+	private static long align(long bytes){
+		return (bytes + 7) & ~7L;
+	}
+
+	@Override
+	public boolean offer(TspNode2 node) {
+		if(memory.size() >= maxInMemory){
+			spill();
+		}
+		return memory.offer(node);
+	}
+
+	@Override
+	public TspNode2 poll() {
+		if(runs.isEmpty()){
+			return memory.poll();
+		}
+		TspNode2 best = memory.peek();
+		Run bestRun = null;
+		for(Run run : runs){
+			if(best == null || run.head.compareTo(best) < 0){
+				best = run.head;
+				bestRun = run;
+			}
+		}
+		if(bestRun == null){
+			return memory.poll();
+		}
+		if(!bestRun.advance()){
+			runs.remove(bestRun);
+		}
+		return best;
+	}
+
+	@Override
+	public TspNode2 peek() {
+		TspNode2 best = memory.peek();
+		for(Run run : runs){
+			if(best == null || run.head.compareTo(best) < 0){
+				best = run.head;
+			}
+		}
+		return best;
+	}
+
+	@Override
+	public int size() {
+		long size = memory.size();
+		for(Run run : runs){
+			size += run.remaining + 1;
+		}
+		return (int)Math.min(size, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Removes matching nodes from memory only. Spilled nodes are left on disk and should be
+	 * checked again when they are polled.
+	 */
+	@Override
+	public boolean removeIf(Predicate<? super TspNode2> filter) {
+		return memory.removeIf(filter);
+	}
+
+	/**
+	 * Also deletes any run files.
+	 */
+	@Override
+	public void clear() {
+		memory.clear();
+		for(Run run : runs){
+			run.delete();
+		}
+		runs.clear();
+	}
+
+	/**
+	 * @return Iterator over a snapshot of the nodes, in no particular order, including
+	 * 	any that have been spilled
+	 */
+	@Override
+	public Iterator<TspNode2> iterator() {
+		List<TspNode2> snapshot = new ArrayList<>(memory);
+		for(Run run : runs){
+			snapshot.add(run.head);
+			RunReader reader = run.reader.copy();
+			for(int i = 0; i < run.remaining; i++){
+				snapshot.add(reader.next());
+			}
+		}
+		return snapshot.iterator();
+	}
+
+	/**
+	 * @return Total number of nodes written to run files
+	 */
+	public long getSpilled(){
+		return spilled;
+	}
+
+	/**
+	 * Keeps the better half of the in-memory nodes and writes the rest to a new run file.
+	 */
+	private void spill(){
+		Queue<TspNode2> kept = memoryFactory.get();
+		for(int i = maxInMemory / 2; i > 0 && !memory.isEmpty(); i--){
+			kept.add(memory.poll());
+		}
+		List<TspNode2> rest = new ArrayList<>(memory.size());
+		while(!memory.isEmpty()){
+			rest.add(memory.poll());
+		}
+		memory = kept;
+		if(rest.isEmpty()){
+			return;
+		}
+
+		Run run = write(rest);
+		runs.add(run);
+		spilled += rest.size();
+		onSpill.accept(rest.size());
+		logger.info("Spilled " + rest.size() + " nodes with bounds from " + rest.get(0).getBound()
+				+ " to disk, " + spilled + " spilled in total across " + runs.size() + " open runs");
+	}
+
+	private Run write(List<TspNode2> nodes){
+		try {
+			Path file = Files.createTempFile("tsp-frontier", ".run");
+			file.toFile().deleteOnExit();
+			ByteBuffer buffer = ByteBuffer.allocate(Math.max(WRITE_BUFFER_BYTES, maxRecordBytes));
+			try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)){
+				for(TspNode2 node : nodes){
+					if(buffer.remaining() < maxRecordBytes){
+						flush(buffer, channel);
+					}
+					buffer.putInt(node.getBound());
+					buffer.putInt(node.getPrefixCost());
+					buffer.putInt(endingIndex(node));
+					width.put(buffer, node.getLength());
+					width.putPath(buffer, node.getPath(), node.getLength());
+				}
+				flush(buffer, channel);
+			}
+			return new Run(new RunReader(file, 0, Files.size(file)), nodes.size());
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not spill search nodes to disk", e);
+		}
+	}
+
+	private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private int endingIndex(TspNode2 node){
+		int[] ending = node.getEnding();
+		if(ending == null){
+			return 0;
+		}
+		Integer index = endingIndex.get(ending);
+		if(index == null){
+			index = endings.size();
+			endingIndex.put(ending, index);
+			endings.add(ending);
+			endingMasks.add(node.getEndingMask());
+		}
+		return index;
+	}
+
+	private TspNode2 read(ByteBuffer buffer){
+		int bound = buffer.getInt();
+		int prefixCost = buffer.getInt();
+		int ending = buffer.getInt();
+		int length = width.get(buffer);
+		int[] path = new int[numSectors];
+		width.getPath(buffer, path, length);
+		return new TspNode2(bound, path, endings.get(ending), length, prefixCost,
+				SectorMask.of(path, length, numSectors), endingMasks.get(ending));
+	}
+
+	/**
+	 * Reads the nodes of a run file in order, refilling a small buffer from the file whenever
+	 * it may no longer hold a whole node.
+	 */
+	private class RunReader {
+		private final Path file;
+		private final long size;
+		private long position; //file offset of the first byte not yet in buffer
+		private final ByteBuffer buffer;
+
+		RunReader(Path file, long position, long size){
+			this.file = file;
+			this.position = position;
+			this.size = size;
+			this.buffer = ByteBuffer.allocate((int)Math.max(maxRecordBytes, Math.min(READ_BUFFER_BYTES, size - position)));
+			buffer.flip();
+		}
+
+		/**
+		 * @return A reader for the same file starting at this one's next node, which
+		 * 	does not move this one
+		 */
+		RunReader copy(){
+			return new RunReader(file, position - buffer.remaining(), size);
+		}
+
+		TspNode2 next(){
+			if(buffer.remaining() < maxRecordBytes && position < size){
+				buffer.compact();
+				try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+					while(buffer.hasRemaining() && position < size){
+						int read = channel.read(buffer, position);
+						if(read < 0){
+							throw new IOException("Unexpected end of " + file);
+						}
+						position += read;
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException("Could not read spilled search nodes from disk", e);
+				} finally {
+					buffer.flip();
+				}
+			}
+			return read(buffer);
+		}
+	}
+
+	/**
+	 * A sorted run file being read back, with its next node already decoded.
+	 */
+	private class Run {
+		private final RunReader reader;
+		private TspNode2 head;
+		private int remaining; //nodes after head
+
+		Run(RunReader reader, int count){
+			this.reader = reader;
+			this.remaining = count;
+			advance();
+		}
+
+		/**
+		 * Decodes the next node into head.
+		 * @return False, after deleting the file, if there are no more nodes
+		 */
+		boolean advance(){
+			if(remaining == 0){
+				delete();
+				return false;
+			}
+			head = reader.next();
+			remaining--;
+			return true;
+		}
+
+		void delete(){
+			head = null;
+			try {
+				Files.deleteIfExists(reader.file);
+			} catch (IOException e) {
+				logger.warn("Could not delete " + reader.file, e);
+			}
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package com.amp.tsp.mapping;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
@@ -8,51 +9,110 @@ import java.util.Queue;
 
 /**
  * Wrapper for a path that includes its bound so that it can be sorted by bound.
+ * 
+ * A child node only stores its last sector and a reference to its parent rather than a
+ * copy of the whole path, so creating one costs the same regardless of depth. The full
+ * path is only rebuilt when it is needed, normally once a path is complete.
  */
 class TspNode2 implements Comparable<TspNode2>{
 
 	private int bound;
-	private int length;
-	private byte[] path;
-	private byte[] ending;
+	private int prefixCost; //cost of the steps taken so far, without any estimate for the rest
+	private final int length;
+	private final int sector; //last sector of the path
+	private final TspNode2 parent; //node for the path without its last sector, or null for a root
+	private final int[] prefix; //whole path of a root node, null for all other nodes
+	private int[] ending;
+	private final long[] visited; //SectorMask of the sectors in path
+	private final long[] endingMask; //SectorMask of the sectors in ending, shared with all descendants
 	
-	public TspNode2(int bound, byte[] path, byte[] ending, int length){
+	private TspNode2(int bound, TspNode2 parent, int sector, int length, int prefixCost, long[] visited, int[] ending, long[] endingMask){
 		this.bound = bound;
-		this.path = path;
+		this.parent = parent;
+		this.sector = sector;
+		this.prefix = null;
+		this.length = length;
+		this.prefixCost = prefixCost;
+		this.visited = visited;
 		this.ending = ending;
+		this.endingMask = endingMask;
+	}
+	
+	/**
+	 * Creates a root node from a whole path.
+	 * @param path Sector ids in order; only the first length are used
+	 */
+	public TspNode2(int bound, int[] path, int[] ending, int length, int prefixCost, long[] visited, long[] endingMask){
+		this.bound = bound;
+		this.parent = null;
+		this.prefix = Arrays.copyOf(path, length);
+		this.sector = length == 0 ? 0 : path[length - 1];
 		this.length = length;
+		this.prefixCost = prefixCost;
+		this.visited = visited;
+		this.ending = ending;
+		this.endingMask = endingMask;
 	}
 	
-	public TspNode2(TspNode node, Map<Sector, Byte> sectorMap){
+	public TspNode2(TspNode node, Map<Sector, Integer> sectorMap, DistanceMatrix distances){
 		this.bound = node.getBound();
+		this.parent = null;
 		
 		List<Sector> sectorPath = node.getPath();
-		this.path = new byte[sectorMap.size()]; //path needs to be maximum possible length
-		for(int i = 0; i < sectorPath.size() ; i++){
-			path[i] = sectorMap.get(sectorPath.get(i));
+		this.length = sectorPath.size();
+		this.prefix = new int[length];
+		for(int i = 0; i < length; i++){
+			prefix[i] = sectorMap.get(sectorPath.get(i));
 		}
+		this.sector = length == 0 ? 0 : prefix[length - 1];
 		
 		List<Sector> sectorEnding = node.getEnding();
 		if(sectorEnding != null){
-			this.ending = new byte[sectorEnding.size()];
+			this.ending = new int[sectorEnding.size()];
 			for(int i = 0; i < sectorEnding.size(); i++){
 				ending[i] = sectorMap.get(sectorEnding.get(i));
 			}
+			this.endingMask = SectorMask.of(ending, ending.length, sectorMap.size());
+		} else {
+			this.endingMask = null;
 		}
 		
-		this.length = sectorPath.size();
+		this.visited = SectorMask.of(prefix, length, sectorMap.size());
+		for(int i = 1; i < length; i++){
+			prefixCost += distances.get(prefix[i-1], prefix[i]);
+		}
+	}
+	
+	/**
+	 * Creates the node reached by stepping from this node's last sector to <code>sector</code>.
+	 * The visited set is copied; the path and ending are shared.
+	 */
+	public TspNode2 child(int sector, int bound, int prefixCost){
+		return new TspNode2(bound, this, sector, length + 1, prefixCost, SectorMask.with(visited, sector), ending, endingMask);
+	}
+	
+	/**
+	 * @return A new array holding this node's path with its required ending appended
+	 */
+	public int[] completedPath(){
+		int[] completed = path(length + ending.length);
+		System.arraycopy(ending, 0, completed, length, ending.length);
+		return completed;
 	}
 	
-	public void addNode(byte node){
-		path[length++] = node;
+	/**
+	 * @return True if the sector has been visited or is part of this node's required ending
+	 */
+	public boolean isUnavailable(int sector){
+		return SectorMask.contains(visited, sector) || (endingMask != null && SectorMask.contains(endingMask, sector));
 	}
 	
 	public static Queue<TspNode2> queueFrom(Queue<TspNode> initialNodes,
-			Map<Sector, Byte> sectorMap) {
+			Map<Sector, Integer> sectorMap, DistanceMatrix distances) {
 		Queue<TspNode2> queue = new PriorityQueue<>();
 		
 		for(TspNode node : initialNodes){
-			queue.add(new TspNode2(node, sectorMap));
+			queue.add(new TspNode2(node, sectorMap, distances));
 		}
 		
 		return queue;
@@ -76,27 +136,60 @@ class TspNode2 implements Comparable<TspNode2>{
 		this.bound = bound;
 	}
 
+	public int getPrefixCost() {
+		return prefixCost;
+	}
+
+	public void setPrefixCost(int prefixCost) {
+		this.prefixCost = prefixCost;
+	}
+
+	/**
+	 * @return The id of the most recently visited sector
+	 */
+	public int getLast() {
+		return sector;
+	}
+
 	public int getLength() {
 		return length;
 	}
 
-	public void setLength(int length) {
-		this.length = length;
+	/**
+	 * @return A new array holding the ids of the sectors in this node's path, in order
+	 */
+	public int[] getPath() {
+		return path(length);
 	}
 
-	public byte[] getPath() {
+	/**
+	 * Walks up to the root to rebuild the path, in an array of the given size.
+	 */
+	private int[] path(int size) {
+		int[] path = new int[size];
+		TspNode2 node = this;
+		int i = length;
+		while(node.parent != null){
+			path[--i] = node.sector;
+			node = node.parent;
+		}
+		System.arraycopy(node.prefix, 0, path, 0, i);
 		return path;
 	}
 
-	public void setPath(byte[] path) {
-		this.path = path;
+	public long[] getVisited() {
+		return visited;
+	}
+
+	public long[] getEndingMask() {
+		return endingMask;
 	}
 
-	public byte[] getEnding() {
+	public int[] getEnding() {
 		return ending;
 	}
 
-	public void setEnding(byte[] ending) {
+	public void setEnding(int[] ending) {
 		this.ending = ending;
 	}
 
@@ -1,6 +1,7 @@
 package com.amp.tsp.mapping;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class TspSolution {
@@ -22,6 +23,15 @@ public class TspSolution {
 	}
 	
 	public interface Complete {
+		/**
+		 * Seeds the exact solvers' incumbent with a fast heuristic path before searching.
+		 */
+		public Complete warmStart();
+		/**
+		 * Uses distances that are already known, such as from {@link ShortestPaths}, instead of
+		 * computing them from the sectors' edges.
+		 */
+		public Complete usingShortestPaths(Map<Sector, Map<Sector, Integer>> shortestPaths);
 		public TspSolver accuracy(int accuracy);
 		public TspBuilder build();
 	}
@@ -31,6 +41,8 @@ public class TspSolution {
 		private List<List<Sector>> seeds;
 		private boolean useSeedsOnly;
 		private List<Constraint> constraints;	
+		private boolean warmStart;
+		private Map<Sector, Map<Sector, Integer>> shortestPaths;
 		
 		TspBuilder(Set<Sector> sectors){
 			this.sectors = sectors;
@@ -44,12 +56,33 @@ public class TspSolution {
 		@Override
 		public TspSolver accuracy(int accuracy) {
 			if(accuracy >= MAX_ACCURACY){
-				return new MultiOptimizedTspSolver(this);
+				if(HeldKarpTspSolver.supports(sectors.size())){
+					return new HeldKarpTspSolver(this);
+				}
+				MultiOptimizedTspSolver solver = new MultiOptimizedTspSolver(this);
+				solver.setBoundStrategy(OneTreeBound.factory());
+				return solver;
+			} else if(sectors.size() >= LinKernighanTspSolver.MIN_SECTORS){
+				LinKernighanTspSolver solver = new LinKernighanTspSolver(this);
+				solver.setTrialsPerSector(accuracy * LinKernighanTspSolver.DEFAULT_TRIALS_PER_SECTOR / (MAX_ACCURACY - 1));
+				return solver;
 			} else {
 				return new MultiOptimizedNearestNeighborTspSolver(accuracy, this);
 			}
 		}
 
+		@Override
+		public Complete warmStart() {
+			this.warmStart = true;
+			return this;
+		}
+
+		@Override
+		public Complete usingShortestPaths(Map<Sector, Map<Sector, Integer>> shortestPaths) {
+			this.shortestPaths = shortestPaths;
+			return this;
+		}
+
 		@Override
 		public Complete optional() {
 			return this;
@@ -88,6 +121,14 @@ public class TspSolution {
 		public List<Constraint> getConstraints() {
 			return constraints;
 		}
+
+		public boolean isWarmStart() {
+			return warmStart;
+		}
+
+		public Map<Sector, Map<Sector, Integer>> getShortestPaths() {
+			return shortestPaths;
+		}
 			
 	}
 
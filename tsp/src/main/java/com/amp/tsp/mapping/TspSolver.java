@@ -11,6 +11,7 @@ public abstract class TspSolver {
 	protected final Logger logger = Logger.getLogger(TspSolver.class); 
 	protected final Set<Sector> sectors;
 	protected final Map<Sector, Map<Sector, Integer>> shortestPaths;
+	protected final DistanceMatrix distances;
 	
 	protected  final List<TspNode> seeds; //each seed is a path used to initialize the search for an optimal path
 	protected  boolean useSeedsOnly; //if true, all solutions considered will derive from seed paths
@@ -19,6 +20,7 @@ public abstract class TspSolver {
 	
 	public Set<Sector> getSectors() {return sectors;}
 	public Map<Sector, Map<Sector, Integer>> getShortestPaths() {return shortestPaths;}
+	public DistanceMatrix getDistanceMatrix() {return distances;}
 	
 	public abstract List<Sector> solve();
 
@@ -28,7 +30,8 @@ public abstract class TspSolver {
 
 	protected TspSolver(TspBuilder builder){
 		this.sectors = builder.getSectors();
-		this.shortestPaths = TspUtilities.calculateShortestPaths(sectors);
+		this.shortestPaths = builder.getShortestPaths() != null ? builder.getShortestPaths() : ShortestPathCache.getInstance().shortestPaths(sectors);
+		this.distances = new DistanceMatrix(sectors, shortestPaths);
 		this.seeds = new ArrayList<>();
 		this.useSeedsOnly = builder.isUseSeedsOnly();
 		
@@ -116,6 +119,83 @@ public abstract class TspSolver {
 		
 	}
 	
+	/**
+	 * Completes a path greedily, always stepping to the nearest sector that is neither visited
+	 * nor part of the ending, then finishing with the ending.
+	 * @param start Sector ids the path starts with
+	 * @param ending Sector ids the path must end with, possibly empty
+	 * @return The sector ids of the complete path, or null if start and ending overlap
+	 */
+	protected int[] nearestNeighborPath(int[] start, int[] ending){
+		int numSectors = distances.size();
+		int[] complete = new int[numSectors];
+		System.arraycopy(start, 0, complete, 0, start.length);
+		long[] unavailable = SectorMask.of(start, start.length, numSectors);
+		for(int id : ending){
+			SectorMask.add(unavailable, id);
+		}
+		int last = start[start.length - 1];
+		for(int length = start.length; length < numSectors - ending.length; length++){
+			int nearest = SectorMask.NONE;
+			for(int i = SectorMask.next(unavailable, 1, numSectors); i != SectorMask.NONE; i = SectorMask.next(unavailable, i + 1, numSectors)){
+				if(nearest == SectorMask.NONE || distances.get(last, i) < distances.get(last, nearest)){
+					nearest = i;
+				}
+			}
+			if(nearest == SectorMask.NONE){
+				return null;
+			}
+			complete[length] = nearest;
+			SectorMask.add(unavailable, nearest);
+			last = nearest;
+		}
+		System.arraycopy(ending, 0, complete, numSectors - ending.length, ending.length);
+		return complete;
+	}
+	
+	/**
+	 * @param route Sectors in order, or null
+	 * @return The ids of the sectors, empty if route is null
+	 */
+	protected int[] ids(List<Sector> route){
+		if(route == null){
+			return new int[0];
+		}
+		int[] ids = new int[route.size()];
+		for(int i = 0; i < ids.length; i++){
+			ids[i] = distances.getId(route.get(i));
+		}
+		return ids;
+	}
+	
+	/**
+	 * Runs a {@link LocalSearchImprover} over a path returned by solve(). Sectors required by
+	 * seeds (when only seeded paths are allowed) or by ending constraints stay in place.
+	 * @param route A complete path over this solver's sectors
+	 * @return A path that is no more expensive than route
+	 */
+	public List<Sector> improve(List<Sector> route){
+		if(route.size() != sectors.size()){
+			return route;
+		}
+		int fixedHead = 0, fixedTail = 0;
+		for(TspNode seed : seeds){
+			List<Sector> starting = seed.getPath();
+			if(useSeedsOnly && route.subList(0, starting.size()).equals(starting)){
+				fixedHead = Math.max(fixedHead, starting.size());
+			}
+			List<Sector> ending = seed.getEnding();
+			if(ending != null && route.subList(route.size() - ending.size(), route.size()).equals(ending)){
+				fixedTail = Math.max(fixedTail, ending.size());
+			}
+		}
+		long start = System.nanoTime();
+		List<Sector> improved = new LocalSearchImprover(distances).improve(route, fixedHead, fixedTail);
+		logger.info("Local search improved cost " + getBoundForPath(route) + " path to " + getBoundForPath(improved)
+				+ " in " + (System.nanoTime() - start) / 1000000 + "ms");
+		return improved;
+	}
+	
 	/**
 	 * Calculate and return the lower bound for the cost of the provided
 	 * path on this particular map.
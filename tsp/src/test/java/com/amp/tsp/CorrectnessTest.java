@@ -1,26 +1,47 @@
 package com.amp.tsp;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 import com.amp.tsp.mapping.SimulatedAnnealingTspSolver;
 import org.apache.log4j.Logger;
 import org.junit.Before;
-import org.junit.Ignore;
 import org.junit.Test;
 
+import com.amp.tsp.mapping.AntColonyTspSolver;
+import com.amp.tsp.mapping.AssignmentBound;
 import com.amp.tsp.mapping.BasicOptimizedTspSolver;
 import com.amp.tsp.mapping.BasicTspSolver;
+import com.amp.tsp.mapping.Constraint;
+import com.amp.tsp.mapping.DistanceMatrix;
 import com.amp.tsp.mapping.ForkJoinTspSolver;
+import com.amp.tsp.mapping.GeneticTspSolver;
+import com.amp.tsp.mapping.HeldKarpTspSolver;
 import com.amp.tsp.mapping.LambdaSolver;
+import com.amp.tsp.mapping.LinKernighanTspSolver;
+import com.amp.tsp.mapping.MultiOptimizedNearestNeighborTspSolver;
 import com.amp.tsp.mapping.MultiOptimizedTspSolver;
 import com.amp.tsp.mapping.MultiTspSolver;
 import com.amp.tsp.mapping.NearestNeighborSolver;
+import com.amp.tsp.mapping.OneTreeBound;
+import com.amp.tsp.mapping.OptimizedTspSolver;
 import com.amp.tsp.mapping.Sector;
+import com.amp.tsp.mapping.ShortestPathCache;
+import com.amp.tsp.mapping.ShortestPaths;
 import com.amp.tsp.mapping.TspSolution;
 import com.amp.tsp.mapping.TspSolution.TspBuilder;
 import com.amp.tsp.mapping.TspSolver;
@@ -109,6 +130,173 @@ public class CorrectnessTest {
 		assertEquals(aEdges.get(new Sector("D")), new Integer(3));
 	}
 	
+	/**
+	 * Maps spanning several tiles of the blocked Floyd-Warshall should match a plain one.
+	 */
+	@Test
+	public void testBlockedShortestPaths(){
+		checkShortestPaths(100, 40);
+	}
+	
+	/**
+	 * Maps with few edges are searched with Dijkstra, which should also match a plain Floyd-Warshall.
+	 */
+	@Test
+	public void testSparseShortestPaths(){
+		checkShortestPaths(300, 3);
+	}
+	
+	private void checkShortestPaths(int numSectors, int edgesPerSector){
+		Random random = new Random(1);
+		List<Sector> sectorList = new ArrayList<>();
+		for(int i = 0; i < numSectors; i++){
+			sectorList.add(new Sector("S" + i));
+		}
+		long[][] expected = new long[numSectors][numSectors];
+		for(int i = 0; i < numSectors; i++){
+			Arrays.fill(expected[i], Integer.MAX_VALUE);
+			expected[i][i] = 0;
+			for(int edge = 0; edge < edgesPerSector; edge++){
+				int j = random.nextInt(numSectors), cost = 1 + random.nextInt(50);
+				if(j != i){
+					sectorList.get(i).addEdge(sectorList.get(j), cost);
+					expected[i][j] = cost;
+				}
+			}
+		}
+		for(int k = 0; k < numSectors; k++){
+			for(int i = 0; i < numSectors; i++){
+				for(int j = 0; j < numSectors; j++){
+					expected[i][j] = Math.min(expected[i][j], expected[i][k] + expected[k][j]);
+				}
+			}
+		}
+		
+		Map<Sector, Map<Sector,Integer>> m = TspUtilities.calculateShortestPaths(new LinkedHashSet<>(sectorList));
+		for(int i = 0; i < numSectors; i++){
+			for(int j = 0; j < numSectors; j++){
+				if(i != j){
+					long distance = Math.min(expected[i][j], Integer.MAX_VALUE);
+					assertEquals(new Integer((int)distance), m.get(sectorList.get(i)).get(sectorList.get(j)));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Edits applied incrementally should match shortest paths computed from scratch.
+	 */
+	@Test
+	public void testIncrementalShortestPaths(){
+		int numSectors = 60;
+		Random random = new Random(1);
+		int[][] costs = new int[numSectors + 1][numSectors + 1]; //0 for no edge
+		for(int i = 0; i < numSectors; i++){
+			for(int edge = 0; edge < 3; edge++){
+				costs[i][random.nextInt(numSectors)] = 1 + random.nextInt(50);
+			}
+		}
+		ShortestPaths paths = new ShortestPaths(edgeSectors(costs, numSectors));
+		assertEquals(TspUtilities.calculateShortestPaths(edgeSectors(costs, numSectors)), paths.toMap());
+
+		//new sector with edges both ways
+		for(int j = 0; j < numSectors; j += 7){
+			costs[numSectors][j] = 1 + random.nextInt(50);
+			costs[j + 3][numSectors] = 1 + random.nextInt(50);
+		}
+		paths.update(edgeSectors(costs, numSectors + 1));
+		assertEquals(TspUtilities.calculateShortestPaths(edgeSectors(costs, numSectors + 1)), paths.toMap());
+
+		//cheap edges into one sector, like a new warp point, and one shortcut elsewhere
+		for(int i = 0; i <= numSectors; i++){
+			costs[i][5] = i == 5 ? 0 : 2;
+		}
+		costs[20][40] = 1;
+		paths.update(edgeSectors(costs, numSectors + 1));
+		assertEquals(TspUtilities.calculateShortestPaths(edgeSectors(costs, numSectors + 1)), paths.toMap());
+
+		//longer edge
+		costs[20][40] = 100;
+		paths.update(edgeSectors(costs, numSectors + 1));
+		assertEquals(TspUtilities.calculateShortestPaths(edgeSectors(costs, numSectors + 1)), paths.toMap());
+
+		//removed sector
+		paths.update(edgeSectors(costs, numSectors));
+		assertEquals(TspUtilities.calculateShortestPaths(edgeSectors(costs, numSectors)), paths.toMap());
+	}
+
+	/**
+	 * @return New sectors S0 to S(numSectors - 1), with an edge wherever costs is non-zero
+	 */
+	private Set<Sector> edgeSectors(int[][] costs, int numSectors){
+		List<Sector> sectorList = new ArrayList<>();
+		for(int i = 0; i < numSectors; i++){
+			sectorList.add(new Sector("S" + i));
+		}
+		for(int i = 0; i < numSectors; i++){
+			for(int j = 0; j < numSectors; j++){
+				if(i != j && costs[i][j] != 0){
+					sectorList.get(i).addEdge(sectorList.get(j), costs[i][j]);
+				}
+			}
+		}
+		return new LinkedHashSet<>(sectorList);
+	}
+
+	/**
+	 * Solving the same map again, even parsed afresh, should reuse its shortest paths from
+	 * memory or disk.
+	 */
+	@Test
+	public void testShortestPathCache() throws IOException{
+		URL simple = CorrectnessTest.class.getClassLoader().getResource("simple.yaml");
+		URL simpleAsym = CorrectnessTest.class.getClassLoader().getResource("asymmetric.yaml");
+		ShortestPathCache cache = ShortestPathCache.getInstance();
+		cache.clear();
+		Map<Sector, Map<Sector,Integer>> m = cache.shortestPaths(MapParser.parseMapFile(simple));
+		TspSolver solver = TspSolution.forSectors(MapParser.parseMapFile(simple)).accuracy(1);
+		assertEquals(TspUtilities.calculateShortestPaths(simpleSectors), m);
+		assertEquals(m, solver.getShortestPaths());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+		
+		cache.setMaxEntries(1);
+		cache.shortestPaths(MapParser.parseMapFile(simpleAsym));
+		cache.shortestPaths(MapParser.parseMapFile(simple));
+		assertEquals(3, cache.getMisses());
+		cache.setMaxEntries(ShortestPathCache.DEFAULT_MAX_ENTRIES);
+		
+		Path directory = Files.createTempDirectory("shortest-paths");
+		try {
+			cache.setDiskDirectory(directory);
+			cache.shortestPaths(MapParser.parseMapFile(simpleAsym));
+			cache.clear();
+			m = cache.shortestPaths(MapParser.parseMapFile(simpleAsym));
+			assertEquals(TspUtilities.calculateShortestPaths(simpleAsymSectors), m);
+			assertEquals(1, cache.getDiskHits());
+			assertEquals(0, cache.getMisses());
+		} finally {
+			cache.setDiskDirectory(null);
+			cache.clear();
+			for(File file : directory.toFile().listFiles()){
+				file.delete();
+			}
+			Files.delete(directory);
+		}
+	}
+	
+	@Test
+	public void testDistanceMatrix(){
+		Map<Sector, Map<Sector,Integer>> m = TspUtilities.calculateShortestPaths(simplePartialSectors);
+		DistanceMatrix matrix = new DistanceMatrix(simplePartialSectors, m);
+		for(Sector s1 : simplePartialSectors){
+			for(Sector s2 : simplePartialSectors){
+				int expected = s1.equals(s2) ? 0 : m.get(s1).get(s2);
+				assertEquals(expected, matrix.get(matrix.getId(s1), matrix.getId(s2)));
+			}
+		}
+	}
+	
 	@Test
 	public void testSimpleTsp() {
 		
@@ -154,6 +342,17 @@ public class CorrectnessTest {
 		testSolver(new MultiOptimizedTspSolver(simplePartialSeedBuilder), PARTIAL_SEEDS_ONLY_BOUND);
 	}
 	
+	@Test
+	public void testHeldKarp(){
+		testSolver(new HeldKarpTspSolver(simpleBuilder), SIMPLE_BOUND);
+		testSolver(new HeldKarpTspSolver(simplePartialBuilder), PARTIAL_BOUND);
+		testSolver(new HeldKarpTspSolver(simpleAsymBuilder), ASYM_BOUND);
+		testSolver(new HeldKarpTspSolver(simpleSeedOptionalBuilder), SEEDS_BOUND);
+		testSolver(new HeldKarpTspSolver(simpleSeedBuilder), SEEDS_ONLY_BOUND);
+		testSolver(new HeldKarpTspSolver(simplePartialSeedOptionalBuilder), PARTIAL_BOUND);
+		testSolver(new HeldKarpTspSolver(simplePartialSeedBuilder), PARTIAL_SEEDS_ONLY_BOUND);
+	}
+	
 	@Test
 	public void testNearestNeighbor(){
 		testSolver(new NearestNeighborSolver(simpleBuilder), SIMPLE_BOUND);
@@ -188,15 +387,242 @@ public class CorrectnessTest {
 	}
 
 	@Test
-	@Ignore
 	public void testSimulatedAnnealing(){
-		testSolver(new SimulatedAnnealingTspSolver(simpleBuilder), SIMPLE_BOUND);
-		testSolver(new SimulatedAnnealingTspSolver(simplePartialBuilder), PARTIAL_BOUND);
-		testSolver(new SimulatedAnnealingTspSolver(simpleAsymBuilder), ASYM_BOUND);
-//		testSolver(new SimulatedAnnealingTspSolver(simpleSeedOptionalBuilder), SEEDS_BOUND);
-//		testSolver(new SimulatedAnnealingTspSolver(simpleSeedBuilder), SEEDS_ONLY_BOUND);
-//		testSolver(new SimulatedAnnealingTspSolver(simplePartialSeedOptionalBuilder), PARTIAL_BOUND);
-//		testSolver(new SimulatedAnnealingTspSolver(simplePartialSeedBuilder), PARTIAL_SEEDS_ONLY_BOUND);
+		testSolver(annealer(simpleBuilder), SIMPLE_BOUND);
+		testSolver(annealer(simplePartialBuilder), PARTIAL_BOUND);
+		testSolver(annealer(simpleAsymBuilder), ASYM_BOUND);
+		testSolver(annealer(simpleSeedOptionalBuilder), SEEDS_BOUND);
+		testSolver(annealer(simpleSeedBuilder), SEEDS_ONLY_BOUND);
+		testSolver(annealer(simplePartialSeedOptionalBuilder), PARTIAL_BOUND);
+		testSolver(annealer(simplePartialSeedBuilder), PARTIAL_SEEDS_ONLY_BOUND);
+	}
+	
+	@Test
+	public void testParallelTempering(){
+		testSolver(tempering(simpleBuilder), SIMPLE_BOUND);
+		testSolver(tempering(simplePartialBuilder), PARTIAL_BOUND);
+		testSolver(tempering(simpleAsymBuilder), ASYM_BOUND);
+		testSolver(tempering(simpleSeedOptionalBuilder), SEEDS_BOUND);
+		testSolver(tempering(simpleSeedBuilder), SEEDS_ONLY_BOUND);
+		testSolver(tempering(simplePartialSeedOptionalBuilder), PARTIAL_BOUND);
+		testSolver(tempering(simplePartialSeedBuilder), PARTIAL_SEEDS_ONLY_BOUND);
+	}
+	
+	private SimulatedAnnealingTspSolver tempering(TspBuilder builder){
+		SimulatedAnnealingTspSolver solver = annealer(builder);
+		solver.setNumChains(4);
+		return solver;
+	}
+	
+	private SimulatedAnnealingTspSolver annealer(TspBuilder builder){
+		SimulatedAnnealingTspSolver solver = new SimulatedAnnealingTspSolver(builder);
+		solver.setTimeBudget(100);
+		solver.setSeed(1);
+		return solver;
+	}
+	
+	@Test
+	public void testGenetic(){
+		testSolver(genetic(simpleBuilder), SIMPLE_BOUND);
+		testSolver(genetic(simplePartialBuilder), PARTIAL_BOUND);
+		testSolver(genetic(simpleAsymBuilder), ASYM_BOUND);
+		testSolver(genetic(simpleSeedOptionalBuilder), SEEDS_BOUND);
+		testSolver(genetic(simpleSeedBuilder), SEEDS_ONLY_BOUND);
+		testSolver(genetic(simplePartialSeedOptionalBuilder), PARTIAL_BOUND);
+		testSolver(genetic(simplePartialSeedBuilder), PARTIAL_SEEDS_ONLY_BOUND);
+	}
+	
+	private GeneticTspSolver genetic(TspBuilder builder){
+		GeneticTspSolver solver = new GeneticTspSolver(builder);
+		solver.setTimeBudget(100);
+		solver.setSeed(1);
+		return solver;
+	}
+	
+	@Test
+	public void testAntColony(){
+		testSolver(antColony(simpleBuilder), SIMPLE_BOUND);
+		testSolver(antColony(simplePartialBuilder), PARTIAL_BOUND);
+		testSolver(antColony(simpleAsymBuilder), ASYM_BOUND);
+		testSolver(antColony(simpleSeedOptionalBuilder), SEEDS_BOUND);
+		testSolver(antColony(simpleSeedBuilder), SEEDS_ONLY_BOUND);
+		testSolver(antColony(simplePartialSeedOptionalBuilder), PARTIAL_BOUND);
+		testSolver(antColony(simplePartialSeedBuilder), PARTIAL_SEEDS_ONLY_BOUND);
+	}
+	
+	private AntColonyTspSolver antColony(TspBuilder builder){
+		AntColonyTspSolver solver = new AntColonyTspSolver(builder);
+		solver.setTimeBudget(100);
+		solver.setSeed(1);
+		return solver;
+	}
+	
+	@Test
+	public void testAssignmentBound(){
+		testSolver(assignmentBound(new BasicOptimizedTspSolver(simpleBuilder)), SIMPLE_BOUND);
+		testSolver(assignmentBound(new BasicOptimizedTspSolver(simplePartialBuilder)), PARTIAL_BOUND);
+		testSolver(assignmentBound(new BasicOptimizedTspSolver(simpleAsymBuilder)), ASYM_BOUND);
+		testSolver(assignmentBound(new BasicOptimizedTspSolver(simpleSeedOptionalBuilder)), SEEDS_BOUND);
+		testSolver(assignmentBound(new BasicOptimizedTspSolver(simpleSeedBuilder)), SEEDS_ONLY_BOUND);
+		testSolver(assignmentBound(new BasicOptimizedTspSolver(simplePartialSeedOptionalBuilder)), PARTIAL_BOUND);
+		testSolver(assignmentBound(new BasicOptimizedTspSolver(simplePartialSeedBuilder)), PARTIAL_SEEDS_ONLY_BOUND);
+		testSolver(assignmentBound(new MultiOptimizedTspSolver(simpleAsymBuilder)), ASYM_BOUND);
+		testSolver(assignmentBound(new MultiOptimizedTspSolver(simplePartialSeedBuilder)), PARTIAL_SEEDS_ONLY_BOUND);
+	}
+	
+	@Test
+	public void testOneTreeBound(){
+		testSolver(oneTreeBound(new BasicOptimizedTspSolver(simpleBuilder)), SIMPLE_BOUND);
+		testSolver(oneTreeBound(new BasicOptimizedTspSolver(simplePartialBuilder)), PARTIAL_BOUND);
+		testSolver(oneTreeBound(new BasicOptimizedTspSolver(simpleAsymBuilder)), ASYM_BOUND);
+		testSolver(oneTreeBound(new BasicOptimizedTspSolver(simpleSeedOptionalBuilder)), SEEDS_BOUND);
+		testSolver(oneTreeBound(new BasicOptimizedTspSolver(simpleSeedBuilder)), SEEDS_ONLY_BOUND);
+		testSolver(oneTreeBound(new BasicOptimizedTspSolver(simplePartialSeedOptionalBuilder)), PARTIAL_BOUND);
+		testSolver(oneTreeBound(new BasicOptimizedTspSolver(simplePartialSeedBuilder)), PARTIAL_SEEDS_ONLY_BOUND);
+		testSolver(oneTreeBound(new MultiOptimizedTspSolver(simpleAsymBuilder)), ASYM_BOUND);
+		testSolver(oneTreeBound(new MultiOptimizedTspSolver(simplePartialSeedBuilder)), PARTIAL_SEEDS_ONLY_BOUND);
+	}
+	
+	@Test
+	public void testDiveInterval(){
+		for(int interval : new int[]{0, 1}){
+			testSolver(diveInterval(new BasicOptimizedTspSolver(simpleBuilder), interval), SIMPLE_BOUND);
+			testSolver(diveInterval(new BasicOptimizedTspSolver(simplePartialBuilder), interval), PARTIAL_BOUND);
+			testSolver(diveInterval(new BasicOptimizedTspSolver(simpleAsymBuilder), interval), ASYM_BOUND);
+			testSolver(diveInterval(new BasicOptimizedTspSolver(simpleSeedOptionalBuilder), interval), SEEDS_BOUND);
+			testSolver(diveInterval(new BasicOptimizedTspSolver(simpleSeedBuilder), interval), SEEDS_ONLY_BOUND);
+			testSolver(diveInterval(new BasicOptimizedTspSolver(simplePartialSeedOptionalBuilder), interval), PARTIAL_BOUND);
+			testSolver(diveInterval(new BasicOptimizedTspSolver(simplePartialSeedBuilder), interval), PARTIAL_SEEDS_ONLY_BOUND);
+			testSolver(diveInterval(new MultiOptimizedTspSolver(simpleAsymBuilder), interval), ASYM_BOUND);
+			testSolver(diveInterval(new MultiOptimizedTspSolver(simplePartialSeedBuilder), interval), PARTIAL_SEEDS_ONLY_BOUND);
+		}
+	}
+	
+	@Test
+	public void testWarmStart(){
+		testSolver(warmStart(new BasicOptimizedTspSolver(simpleBuilder)), SIMPLE_BOUND);
+		testSolver(warmStart(new BasicOptimizedTspSolver(simplePartialBuilder)), PARTIAL_BOUND);
+		testSolver(warmStart(new BasicOptimizedTspSolver(simpleAsymBuilder)), ASYM_BOUND);
+		testSolver(warmStart(new BasicOptimizedTspSolver(simpleSeedOptionalBuilder)), SEEDS_BOUND);
+		testSolver(warmStart(new BasicOptimizedTspSolver(simpleSeedBuilder)), SEEDS_ONLY_BOUND);
+		testSolver(warmStart(new BasicOptimizedTspSolver(simplePartialSeedOptionalBuilder)), PARTIAL_BOUND);
+		testSolver(warmStart(new BasicOptimizedTspSolver(simplePartialSeedBuilder)), PARTIAL_SEEDS_ONLY_BOUND);
+		testSolver(warmStart(new MultiOptimizedTspSolver(simpleAsymBuilder)), ASYM_BOUND);
+		testSolver(warmStart(new MultiOptimizedTspSolver(simplePartialSeedBuilder)), PARTIAL_SEEDS_ONLY_BOUND);
+	}
+	
+	@Test
+	public void testLinKernighan(){
+		testSolver(new LinKernighanTspSolver(simpleBuilder), SIMPLE_BOUND);
+		testSolver(new LinKernighanTspSolver(simplePartialBuilder), PARTIAL_BOUND);
+		testSolver(new LinKernighanTspSolver(simpleAsymBuilder), ASYM_BOUND);
+		testSolver(new LinKernighanTspSolver(simpleSeedOptionalBuilder), SEEDS_BOUND);
+		testSolver(new LinKernighanTspSolver(simpleSeedBuilder), SEEDS_ONLY_BOUND);
+		testSolver(new LinKernighanTspSolver(simplePartialSeedOptionalBuilder), PARTIAL_BOUND);
+		testSolver(new LinKernighanTspSolver(simplePartialSeedBuilder), PARTIAL_SEEDS_ONLY_BOUND);
+	}
+	
+	@Test
+	public void testLocalSearch(){
+		testImprover(new MultiOptimizedNearestNeighborTspSolver(1, simpleBuilder), SIMPLE_BOUND, null);
+		testImprover(new MultiOptimizedNearestNeighborTspSolver(1, simplePartialBuilder), PARTIAL_BOUND, null);
+		testImprover(new MultiOptimizedNearestNeighborTspSolver(1, simpleAsymBuilder), ASYM_BOUND, null);
+		testImprover(new MultiOptimizedNearestNeighborTspSolver(1, simpleSeedOptionalBuilder), SEEDS_BOUND, null);
+		testImprover(new MultiOptimizedNearestNeighborTspSolver(1, simpleSeedBuilder), SEEDS_ONLY_BOUND, simpleSeeds);
+		testImprover(new MultiOptimizedNearestNeighborTspSolver(1, simplePartialSeedOptionalBuilder), PARTIAL_BOUND, null);
+		testImprover(new MultiOptimizedNearestNeighborTspSolver(1, simplePartialSeedBuilder), PARTIAL_SEEDS_ONLY_BOUND, simplePartialSeeds);
+	}
+	
+	/**
+	 * Checks that improving the solver's path keeps every sector, keeps any required seed and
+	 * does not make it more expensive.
+	 * @param requiredSeeds Seeds one of which the path must start with, or null
+	 */
+	private void testImprover(TspSolver solver, int optimalBound, List<List<Sector>> requiredSeeds){
+		List<Sector> route = solver.solve();
+		List<Sector> improved = solver.improve(route);
+		logger.info("Improved " + route + " " + solver.getBoundForPath(route) + " to " + improved + " " + solver.getBoundForPath(improved));
+		assertEquals("Improved path is missing sectors", new HashSet<>(route), new HashSet<>(improved));
+		assertEquals("Improved path is missing sectors", route.size(), improved.size());
+		assertTrue("Improved path is more expensive", solver.getBoundForPath(improved) <= solver.getBoundForPath(route));
+		assertTrue("Improved path is cheaper than optimal", solver.getBoundForPath(improved) >= optimalBound);
+		if(requiredSeeds != null){
+			assertTrue("Improved path does not start with a seed",
+					requiredSeeds.stream().anyMatch(seed -> improved.subList(0, seed.size()).equals(seed)));
+		}
+	}
+	
+	/**
+	 * With almost no memory budget, nodes are spilled to disk and read back all the time, and
+	 * the dominance table has no room, which should still give the optimal path. Only the multi
+	 * threaded solver handles endings, so seeds with endings are only checked with it.
+	 */
+	@Test
+	public void testSpilling(){
+		Set<Sector> sectors = MapParser.parseMapFile(CorrectnessTest.class.getClassLoader().getResource("season10-alpha-quadrant.yaml"));
+		List<Sector> sectorList = new ArrayList<>(sectors);
+		List<Constraint> endingOnly = Arrays.asList(new Constraint(new ArrayList<>(), sectorList.subList(0, 1)));
+		List<Constraint> startAndEnding = Arrays.asList(new Constraint(sectorList.subList(1, 2), sectorList.subList(2, 4)));
+		TspBuilder plain = TspSolution.forSectors(sectors).build();
+		testSpilling(new BasicOptimizedTspSolver(plain), optimum(plain));
+		for(TspBuilder builder : Arrays.asList(plain,
+				TspSolution.forSectors(sectors).usingConstraints(endingOnly).build(),
+				TspSolution.forSectors(sectors).usingConstraints(startAndEnding).build())){
+			testSpilling(new MultiOptimizedTspSolver(builder), optimum(builder));
+		}
+	}
+	
+	private int optimum(TspBuilder builder){
+		HeldKarpTspSolver exact = new HeldKarpTspSolver(builder);
+		return exact.getBoundForPath(exact.solve());
+	}
+	
+	private void testSpilling(OptimizedTspSolver solver, int optimum){
+		solver.setMemoryBudget(1);
+		testSolver(solver, optimum);
+		assertTrue(solver.getSpilled() > 0);
+	}
+	
+	private OptimizedTspSolver warmStart(OptimizedTspSolver solver){
+		solver.setWarmStart(true);
+		return solver;
+	}
+	
+	private OptimizedTspSolver diveInterval(OptimizedTspSolver solver, int diveInterval){
+		solver.setDiveInterval(diveInterval);
+		return solver;
+	}
+	
+	private OptimizedTspSolver assignmentBound(OptimizedTspSolver solver){
+		solver.setBoundStrategy(AssignmentBound::new);
+		return solver;
+	}
+	
+	private OptimizedTspSolver oneTreeBound(OptimizedTspSolver solver){
+		solver.setBoundStrategy(OneTreeBound.factory());
+		return solver;
+	}
+	
+	/**
+	 * Sector ids past 127 used to overflow when paths were stored as bytes.
+	 */
+	@Test
+	public void testWideMap(){
+		int numSectors = 200;
+		Set<Sector> line = new LinkedHashSet<>();
+		Sector previous = null;
+		for(int i = 0; i < numSectors; i++){
+			Sector sector = new Sector("S" + i);
+			if(previous != null){
+				previous.addEdge(sector, 1);
+				sector.addEdge(previous, 1);
+			}
+			line.add(sector);
+			previous = sector;
+		}
+		TspBuilder builder = TspSolution.forSectors(line).build();
+		testSolver(new MultiOptimizedNearestNeighborTspSolver(1, builder), numSectors - 1);
+		testSolver(new LinKernighanTspSolver(builder), numSectors - 1);
 	}
 	
 	private void testSolver(TspSolver solver, int expectedBound){
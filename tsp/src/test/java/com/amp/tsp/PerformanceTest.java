@@ -19,11 +19,14 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
+import com.amp.tsp.mapping.AntColonyTspSolver;
 import com.amp.tsp.mapping.BasicOptimizedNearestNeighborTspSolver;
 import com.amp.tsp.mapping.BasicOptimizedTspSolver;
 import com.amp.tsp.mapping.BasicTspSolver;
 import com.amp.tsp.mapping.ForkJoinTspSolver;
+import com.amp.tsp.mapping.GeneticTspSolver;
 import com.amp.tsp.mapping.LambdaSolver;
+import com.amp.tsp.mapping.LinKernighanTspSolver;
 import com.amp.tsp.mapping.MultiOptimizedNearestNeighborTspSolver;
 import com.amp.tsp.mapping.MultiOptimizedTspSolver;
 import com.amp.tsp.mapping.MultiTspSolver;
@@ -113,6 +116,31 @@ public class PerformanceTest {
 		logger.info(results);
 	}
 	
+	/**
+	 * Compare the relaxed and strictly ordered work queues of the multi-threaded solver
+	 * across thread counts on the beta quadrant.
+	 */
+	@Test
+	public void test37BetaQuadrantThreadScaling(){
+		int[] threadCounts = {1, 2, 4, 8, 16};
+		StringBuilder sb = new StringBuilder();
+		for(boolean relaxed : new boolean[]{true, false}){
+			sb.append(relaxed ? "MultiQueue" : "PriorityBlockingQueue");
+			for(int numThreads : threadCounts){
+				MultiOptimizedTspSolver solver = new MultiOptimizedTspSolver(betaBuilder);
+				solver.setNumThreads(numThreads);
+				solver.setRelaxedQueue(relaxed);
+				long start = System.nanoTime();
+				List<Sector> route = solver.solve();
+				long time = (System.nanoTime() - start)/1000000;
+				assertEquals("Incorrect bound for beta with " + numThreads + " threads", BETA_MIN_BOUND, solver.getBoundForPath(route));
+				sb.append(" ").append(numThreads).append("(").append(time).append("ms)");
+			}
+			sb.append(System.getProperty("line.separator"));
+		}
+		logger.info(sb.toString());
+	}
+	
 	@Test
 	public void test38NewBetaQuadrantMulti(){
 		long multi, start;
@@ -279,6 +307,133 @@ public class PerformanceTest {
 		logger.info(sb.toString());
 	}
 
+	@Test
+	public void test81NearestNeighborImproved(){
+		int MAX_NEIGHBORS = 4;
+		StringBuilder sb = new StringBuilder();
+		
+		for(int i = 1; i <= MAX_NEIGHBORS; i++){
+			sb.append("Neighbors(").append(i).append(")").append(System.getProperty("line.separator"));
+			sb.append(improvedString("moderate", new MultiOptimizedNearestNeighborTspSolver(i, moderateBuilder)));
+			sb.append(improvedString("long", new MultiOptimizedNearestNeighborTspSolver(i, longBuilder)));
+			sb.append(improvedString("beta", new MultiOptimizedNearestNeighborTspSolver(i, betaBuilder)));
+			sb.append(System.getProperty("line.separator"));
+		}
+		sb.append("Moderate actual: ").append(MODERATE_MIN_BOUND).append(" Long actual: ").append(LONG_MIN_BOUND).append(" Beta actual: ").append(BETA_MIN_BOUND);
+		logger.info(sb.toString());
+	}
+	
+	/**
+	 * @return name(solve ms + improve ms)(bound -> improved bound)
+	 */
+	private String improvedString(String name, TspSolver solver){
+		long start = System.nanoTime();
+		List<Sector> route = solver.solve();
+		long solveTime = (System.nanoTime() - start)/1000000;
+		start = System.nanoTime();
+		List<Sector> improved = solver.improve(route);
+		long improveTime = (System.nanoTime() - start)/1000000;
+		return name + "(" + solveTime + " + " + improveTime + ")(" + solver.getBoundForPath(route) + " -> " + solver.getBoundForPath(improved) + ") ";
+	}
+	
+	@Test
+	public void test82LinKernighan(){
+		long start = System.nanoTime();
+		TspSolver solver = new LinKernighanTspSolver(moderateBuilder);
+		List<Sector> route = solver.solve();
+		logger.info("moderate(" + (System.nanoTime() - start)/1000000 + ")(" + solver.getBoundForPath(route) + ")");
+		assertEquals("Incorrect bound for moderate", MODERATE_MIN_BOUND, solver.getBoundForPath(route));
+		
+		start = System.nanoTime();
+		solver = new LinKernighanTspSolver(longBuilder);
+		route = solver.solve();
+		logger.info("long(" + (System.nanoTime() - start)/1000000 + ")(" + solver.getBoundForPath(route) + ")");
+		assertEquals("Incorrect bound for long", LONG_MIN_BOUND, solver.getBoundForPath(route));
+		
+		start = System.nanoTime();
+		solver = new LinKernighanTspSolver(betaBuilder);
+		route = solver.solve();
+		logger.info("beta(" + (System.nanoTime() - start)/1000000 + ")(" + solver.getBoundForPath(route) + ")");
+		assertEquals("Incorrect bound for beta", BETA_MIN_BOUND, solver.getBoundForPath(route));
+	}
+	
+	@Test
+	public void test83ParallelTempering(){
+		int numChains = Runtime.getRuntime().availableProcessors();
+		StringBuilder sb = new StringBuilder();
+		sb.append(temperingString("moderate", moderateBuilder, numChains));
+		sb.append(temperingString("long", longBuilder, numChains));
+		sb.append(temperingString("beta", betaBuilder, numChains));
+		sb.append(System.getProperty("line.separator"));
+		sb.append("Moderate actual: ").append(MODERATE_MIN_BOUND).append(" Long actual: ").append(LONG_MIN_BOUND).append(" Beta actual: ").append(BETA_MIN_BOUND);
+		logger.info(sb.toString());
+	}
+	
+	/**
+	 * @return name(chains)(best cost each second) vs nearest neighbor(ms)(bound)
+	 */
+	private String temperingString(String name, TspBuilder builder, int numChains){
+		SimulatedAnnealingTspSolver annealer = new SimulatedAnnealingTspSolver(builder);
+		annealer.setNumChains(numChains);
+		annealer.setTimeBudget(5000);
+		annealer.solve();
+		long start = System.nanoTime();
+		TspSolver solver = new MultiOptimizedNearestNeighborTspSolver(1, builder);
+		List<Sector> route = solver.solve();
+		long time = (System.nanoTime() - start)/1000000;
+		return name + "(" + numChains + ")" + annealer.getBestCostPerSecond() + " vs nearest neighbor(" + time + ")(" + solver.getBoundForPath(route) + ") ";
+	}
+	
+	@Test
+	public void test84Genetic(){
+		long start = System.nanoTime();
+		TspSolver solver = new GeneticTspSolver(moderateBuilder);
+		List<Sector> route = solver.solve();
+		logger.info("moderate(" + (System.nanoTime() - start)/1000000 + ")(" + solver.getBoundForPath(route) + ")");
+		assertEquals("Incorrect bound for moderate", MODERATE_MIN_BOUND, solver.getBoundForPath(route));
+		
+		start = System.nanoTime();
+		solver = new GeneticTspSolver(longBuilder);
+		route = solver.solve();
+		logger.info("long(" + (System.nanoTime() - start)/1000000 + ")(" + solver.getBoundForPath(route) + ")");
+		assertEquals("Incorrect bound for long", LONG_MIN_BOUND, solver.getBoundForPath(route));
+		
+		start = System.nanoTime();
+		solver = new GeneticTspSolver(betaBuilder);
+		route = solver.solve();
+		logger.info("beta(" + (System.nanoTime() - start)/1000000 + ")(" + solver.getBoundForPath(route) + ")");
+		assertEquals("Incorrect bound for beta", BETA_MIN_BOUND, solver.getBoundForPath(route));
+	}
+	
+	@Test
+	public void test85AntColonyCompare(){
+		String[] maps = {"Season10-Alpha.yaml", "asymmetric.yaml", "boundaries.yaml", "federation-space-boundaries.yaml",
+				"federation-space.yaml", "map.yaml", "season10-alpha-quadrant.yaml", "season10-beta-quadrant.yaml",
+				"trick.yaml", "warp-point.yaml"};
+		StringBuilder sb = new StringBuilder();
+		for(String map : maps){
+			TspBuilder builder = TspSolution.forSectors(MapParser.parseMapFile(PerformanceTest.class.getClassLoader().getResource(map))).build();
+			sb.append(map).append(": ");
+			sb.append(solverString(new AntColonyTspSolver(builder)));
+			sb.append(solverString(new GeneticTspSolver(builder)));
+			sb.append(solverString(new SimulatedAnnealingTspSolver(builder)));
+			sb.append(solverString(new LinKernighanTspSolver(builder)));
+			sb.append(solverString(new MultiOptimizedNearestNeighborTspSolver(1, builder)));
+			sb.append(System.getProperty("line.separator"));
+		}
+		logger.info(sb.toString());
+	}
+	
+	/**
+	 * @return name(solve ms)(bound)
+	 */
+	private String solverString(TspSolver solver){
+		long start = System.nanoTime();
+		List<Sector> route = solver.solve();
+		long time = (System.nanoTime() - start)/1000000;
+		return solver.getClass().getSimpleName() + "(" + time + ")(" + solver.getBoundForPath(route) + ") ";
+	}
+	
 	@Test
 	public void test90MultiOptimizedPerformanceMetric(){
 		TspSolver longSolver = new MultiOptimizedTspSolver(longBuilder);